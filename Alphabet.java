@@ -20,4 +20,18 @@ abstract class Alphabet {
      *  the alphabet. This is the inverse of toChar(). */
     abstract int toInt(char ch);
 
+    /** Returns toChar(INDEX) without checking that 0 <= INDEX < size(),
+     *  for use when INDEX is already known to be valid.  By default,
+     *  the same as toChar. */
+    char toCharUnchecked(int index) {
+        return toChar(index);
+    }
+
+    /** Returns toInt(CH) without checking that CH is in the alphabet,
+     *  for use when CH is already known to be valid.  By default, the
+     *  same as toInt. */
+    int toIntUnchecked(char ch) {
+        return toInt(ch);
+    }
+
 }
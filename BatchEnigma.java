@@ -0,0 +1,220 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Converts one message under many rotor settings at once, as when
+ *  trying many keys against the same text.  The settings are processed
+ *  in groups of lanes whose state is kept by rotor slot (one array of
+ *  settings per slot, indexed by lane), so that each step of the
+ *  conversion is a simple loop over the lanes: gathers from the rotor
+ *  tables for the conversion, and for stepping, the carry bits of each
+ *  lane are added to its settings and wrapped through a table instead of
+ *  being tested.  When the Vector API (module jdk.incubator.vector) is
+ *  present, these loops are done by VectorLanes, several lanes per
+ *  instruction; otherwise they are plain loops over arrays.  A
+ *  BatchEnigma is not safe for use by several threads at once.
+ *  @author esun
+ */
+class BatchEnigma {
+
+    /** Default number of lanes. */
+    static final int DEFAULT_LANES = 256;
+
+    /** True iff the module jdk.incubator.vector is present, so that
+     *  VectorLanes may be used. */
+    static final boolean VECTOR_AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /** A converter using the rotors and plugboard currently in MACHINE,
+     *  processing LANES settings at a time, with VectorLanes if
+     *  VECTOR_AVAILABLE. */
+    BatchEnigma(Machine machine, int lanes) {
+        this(machine, lanes, VECTOR_AVAILABLE);
+    }
+
+    /** A converter using the rotors and plugboard currently in MACHINE,
+     *  processing LANES settings at a time, with VectorLanes iff VECTOR.
+     *  VECTOR may be true only if VECTOR_AVAILABLE. */
+    BatchEnigma(Machine machine, int lanes, boolean vector) {
+        if (lanes <= 0) {
+            throw error("number of lanes must be positive");
+        }
+        Rotor[] rotors = machine.rotors();
+        Permutation plugboard = machine.plugboard();
+        int size = plugboard.size();
+        _size = size;
+        _firstMoving = machine.numRotors() - machine.numPawls();
+        _lanes = lanes;
+        _wrap = new int[2 * size];
+        _plugForward = new int[size];
+        _plugInverse = new int[size];
+        for (int p = 0; p < size; p += 1) {
+            _wrap[p] = _wrap[p + size] = p;
+            _plugForward[p] = plugboard.permute(p);
+            _plugInverse[p] = plugboard.invert(p);
+        }
+        _forward = new int[rotors.length][];
+        _backward = new int[rotors.length][];
+        _notch = new int[rotors.length][size];
+        _posn = new int[rotors.length][lanes];
+        for (int i = 0; i < rotors.length; i += 1) {
+            _forward[i] = rotors[i].forwardTable();
+            _backward[i] = rotors[i].backwardTable();
+            for (int p = 0; p < size; p += 1) {
+                _notch[i][p] = rotors[i].atNotch(p) ? 1 : 0;
+            }
+        }
+        _chars = new int[lanes];
+        _index = new int[lanes];
+        _vector = vector;
+    }
+
+    /** A converter using the rotors and plugboard currently in MACHINE
+     *  and DEFAULT_LANES lanes. */
+    BatchEnigma(Machine machine) {
+        this(machine, DEFAULT_LANES);
+    }
+
+    /** Convert the first LEN characters of MSG (as indices into the
+     *  alphabet) starting from each of the rotor settings SETTINGS[k] (as
+     *  from Machine.positions()), storing the result for SETTINGS[k] in
+     *  the first LEN elements of OUT[k], and leaving in SETTINGS[k] the
+     *  settings after the conversion. */
+    void convert(int[] msg, int len, int[][] settings, int[][] out) {
+        convert(msg, len, settings, settings.length, out);
+    }
+
+    /** As for convert(MSG, LEN, SETTINGS, OUT), but using only the first
+     *  COUNT elements of SETTINGS and OUT. */
+    void convert(int[] msg, int len, int[][] settings, int count,
+                 int[][] out) {
+        for (int base = 0; base < count; base += _lanes) {
+            int width = Math.min(_lanes, count - base);
+            for (int i = 0; i < _posn.length; i += 1) {
+                for (int k = 0; k < width; k += 1) {
+                    _posn[i][k] = settings[base + k][i];
+                }
+            }
+            for (int j = 0; j < len; j += 1) {
+                step(width);
+                convert(msg[j], width);
+                for (int k = 0; k < width; k += 1) {
+                    out[base + k][j] = _chars[k];
+                }
+            }
+            for (int i = 0; i < _posn.length; i += 1) {
+                for (int k = 0; k < width; k += 1) {
+                    settings[base + k][i] = _posn[i][k];
+                }
+            }
+        }
+    }
+
+    /** Advance the rotors in the first WIDTH lanes by one keypress. */
+    private void step(int width) {
+        int last = _posn.length - 1;
+        if (_vector) {
+            for (int i = _firstMoving; i < last; i += 1) {
+                VectorLanes.advance(_posn[i], _posn[i + 1], _notch[i + 1],
+                                    i > _firstMoving ? _notch[i] : null,
+                                    _size, width);
+            }
+            VectorLanes.advance(_posn[last], null, null, null, _size, width);
+            return;
+        }
+        int[] wrap = _wrap;
+        for (int i = _firstMoving; i < last; i += 1) {
+            int[] posn = _posn[i], right = _posn[i + 1];
+            int[] rightNotch = _notch[i + 1];
+            if (i > _firstMoving) {
+                int[] notch = _notch[i];
+                for (int k = 0; k < width; k += 1) {
+                    posn[k] = wrap[posn[k]
+                                   + (rightNotch[right[k]] | notch[posn[k]])];
+                }
+            } else {
+                for (int k = 0; k < width; k += 1) {
+                    posn[k] = wrap[posn[k] + rightNotch[right[k]]];
+                }
+            }
+        }
+        int[] fast = _posn[last];
+        for (int k = 0; k < width; k += 1) {
+            fast[k] = wrap[fast[k] + 1];
+        }
+    }
+
+    /** Set the first WIDTH elements of _chars to the conversion of C in
+     *  the corresponding lanes. */
+    private void convert(int c, int width) {
+        int[] chars = _chars;
+        int p0 = _plugForward[c];
+        for (int k = 0; k < width; k += 1) {
+            chars[k] = p0;
+        }
+        int last = _posn.length - 1;
+        if (_vector) {
+            for (int i = last; i >= 0; i -= 1) {
+                VectorLanes.lookup(_forward[i], _size, _posn[i], chars,
+                                   _index, width);
+            }
+            for (int i = 1; i <= last; i += 1) {
+                VectorLanes.lookup(_backward[i], _size, _posn[i], chars,
+                                   _index, width);
+            }
+            VectorLanes.map(_plugInverse, chars, width);
+            return;
+        }
+        for (int i = last; i >= 0; i -= 1) {
+            int[] table = _forward[i], posn = _posn[i];
+            for (int k = 0; k < width; k += 1) {
+                chars[k] = table[posn[k] * _size + chars[k]];
+            }
+        }
+        for (int i = 1; i <= last; i += 1) {
+            int[] table = _backward[i], posn = _posn[i];
+            for (int k = 0; k < width; k += 1) {
+                chars[k] = table[posn[k] * _size + chars[k]];
+            }
+        }
+        int[] inverse = _plugInverse;
+        for (int k = 0; k < width; k += 1) {
+            chars[k] = inverse[chars[k]];
+        }
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** First slot with a pawl. */
+    private final int _firstMoving;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Entry P is P modulo _size, for 0 <= P < 2 * _size. */
+    private final int[] _wrap;
+
+    /** The plugboard and its inverse. */
+    private final int[] _plugForward, _plugInverse;
+
+    /** The forward and backward conversion tables of each slot (see
+     *  Rotor.forwardTable). */
+    private final int[][] _forward, _backward;
+
+    /** Entry [I][P] is 1 if setting P of slot I is a notch, else 0. */
+    private final int[][] _notch;
+
+    /** Entry [I][K] is the setting of slot I in lane K. */
+    private final int[][] _posn;
+
+    /** The character being converted in each lane. */
+    private final int[] _chars;
+
+    /** Scratch space for the table indices of each lane. */
+    private final int[] _index;
+
+    /** True iff the lane loops use VectorLanes. */
+    private final boolean _vector;
+
+}
@@ -0,0 +1,64 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.MachineTest.*;
+
+/** The suite of all JUnit tests for the BatchEnigma class.
+ *  @author esun
+ */
+public class BatchEnigmaTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(500);
+
+    @Test
+    public void checkMatchesMachine() {
+        checkMatchesMachine(64, false);
+        checkMatchesMachine(37, false);
+        if (BatchEnigma.VECTOR_AVAILABLE) {
+            checkMatchesMachine(64, true);
+            checkMatchesMachine(37, true);
+        }
+    }
+
+    /** Check conversion by a BatchEnigma with LANES lanes, using
+     *  VectorLanes iff VECTOR, against a Machine. */
+    private void checkMatchesMachine(int lanes, boolean vector) {
+        Random random = new Random(11);
+        Machine mach = naval(SPEC_ROTORS, "AAAA", "(HQ) (EX) (IP)");
+        int[] msg = new int[200];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = random.nextInt(26);
+        }
+        int[][] settings = new int[1000][];
+        for (int k = 0; k < settings.length; k += 1) {
+            settings[k] = new int[] { 0, random.nextInt(26),
+                                      random.nextInt(26), random.nextInt(26),
+                                      random.nextInt(26) };
+        }
+        int[][] initial = new int[settings.length][];
+        for (int k = 0; k < settings.length; k += 1) {
+            initial[k] = settings[k].clone();
+        }
+        int[][] out = new int[settings.length][msg.length];
+        new BatchEnigma(mach, lanes, vector)
+            .convert(msg, msg.length, settings, out);
+        for (int k = 0; k < settings.length; k += 1) {
+            mach.setPositions(initial[k]);
+            for (int i = 0; i < msg.length; i += 1) {
+                assertEquals(lanes + " lanes, vector " + vector + ", lane "
+                             + k + ", character " + i,
+                             mach.convert(msg[i]), out[k][i]);
+            }
+            assertArrayEquals(mach.positions(), settings[k]);
+        }
+    }
+
+}
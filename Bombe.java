@@ -0,0 +1,442 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A Turing-Welchman bombe: recovers rotor orders, settings, and part of
+ *  the plugboard from ciphertext and a crib (known plaintext at a known
+ *  offset).  The crib and the ciphertext under it form the menu, a graph
+ *  on letters with an edge for each position, labeled with the
+ *  unsteckered conversion (the scrambler) at that position.  For each
+ *  rotor order and initial setting, a bombe hypothesizes each stecker
+ *  partner of the most connected letter of the menu and follows the
+ *  consequences through the scramblers and the diagonal board (if A is
+ *  steckered to B, B is steckered to A).  A hypothesis whose consequences
+ *  give some letter two partners is false, as are all others it implies;
+ *  a consistent one is a stop, reported with the steckers it implies.
+ *  Unlike the original, each scrambler steps exactly as the machine does,
+ *  including carries within the crib.  The rotor orders times the
+ *  settings form a keyspace that is divided among the threads of a
+ *  ForkJoinPool.
+ *  @author esun
+ */
+class Bombe {
+
+    /** A possible key found by the bombe. */
+    static final class Stop {
+
+        /** A stop at ROTORS (names, reflector first) and SETTING, with
+         *  plugboard PLUGBOARD in cycle notation. */
+        Stop(String[] rotors, String setting, String plugboard) {
+            _rotors = rotors.clone();
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Return the names of the rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the initial settings of the rotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the steckers implied by the stop, in cycle notation.
+         *  Letters of the menu not mentioned are steckered to
+         *  themselves; others are unknown. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return me as a settings line. */
+        @Override
+        public String toString() {
+            return String.format("* %s %s %s", String.join(" ", _rotors),
+                                 _setting, _plugboard).trim();
+        }
+
+        /** Names of the rotors. */
+        private final String[] _rotors;
+
+        /** Initial settings. */
+        private final String _setting;
+
+        /** Implied steckers. */
+        private final String _plugboard;
+    }
+
+    /** A bombe for machines with alphabet ALPHA, NUMROTORS slots, PAWLS
+     *  pawls, and the rotors in LIBRARY, that looks for keys under which
+     *  CIPHER[OFFSET + I] is the conversion of CRIB[I] (all as indices
+     *  into ALPHA), when CIPHER is converted from the start. */
+    Bombe(Alphabet alpha, int numRotors, int pawls, RotorLibrary library,
+          int[] cipher, int[] crib, int offset) {
+        if (offset < 0 || offset + crib.length > cipher.length) {
+            throw error("crib does not fit in the ciphertext");
+        }
+        if (crib.length == 0) {
+            throw error("empty crib");
+        }
+        _alphabet = alpha;
+        _size = alpha.size();
+        _numRotors = numRotors;
+        _firstMoving = numRotors - pawls;
+        _library = library;
+        _offset = offset;
+        int n = _size;
+        _from = new int[crib.length];
+        _to = new int[crib.length];
+        int[] degree = new int[n];
+        for (int e = 0; e < crib.length; e += 1) {
+            _from[e] = crib[e];
+            _to[e] = cipher[offset + e];
+            if (_from[e] == _to[e]) {
+                throw error("crib letter %c at %d encrypts to itself",
+                            alpha.toChar(_from[e]), offset + e);
+            }
+            degree[_from[e]] += 1;
+            degree[_to[e]] += 1;
+        }
+        int test = 0;
+        _adjacency = new int[n][];
+        for (int c = 0; c < n; c += 1) {
+            _adjacency[c] = new int[degree[c]];
+            if (degree[c] > degree[test]) {
+                test = c;
+            }
+        }
+        _test = test;
+        Arrays.fill(degree, 0);
+        for (int e = 0; e < crib.length; e += 1) {
+            _adjacency[_from[e]][degree[_from[e]]++] = e;
+            _adjacency[_to[e]][degree[_to[e]]++] = e;
+        }
+    }
+
+    /** Return the stops over all valid rotor orders, using POOL. */
+    List<Stop> run(ForkJoinPool pool) {
+        return run(rotorOrders(), pool);
+    }
+
+    /** Return the stops over the rotor orders ORDERS (each the names of
+     *  the rotors, reflector first), using POOL.  Stops are in the order
+     *  of ORDERS, then of settings (rightmost varying fastest). */
+    List<Stop> run(List<String[]> orders, ForkJoinPool pool) {
+        Rotor[][] rotors = new Rotor[orders.size()][];
+        for (int k = 0; k < rotors.length; k += 1) {
+            String[] names = orders.get(k);
+            if (names.length != _numRotors) {
+                throw error("wrong number of rotors");
+            }
+            rotors[k] = new Rotor[names.length];
+            int[] order = new int[names.length];
+            for (int i = 0; i < names.length; i += 1) {
+                order[i] = _library.indexOf(names[i]);
+                rotors[k][i] = order[i] < 0 ? null : _library.get(order[i]);
+            }
+            Machine.validateRotors(rotors[k], order, _firstMoving);
+        }
+        long settings = 1;
+        for (int i = 1; i < _numRotors; i += 1) {
+            settings = Math.multiplyExact(settings, _size);
+        }
+        return pool.invoke(new Search(rotors, settings, 0,
+                                      Math.multiplyExact(settings,
+                                                         rotors.length)));
+    }
+
+    /** Return all valid rotor orders of my library. */
+    List<String[]> rotorOrders() {
+        return _library.rotorOrders(_numRotors, _numRotors - _firstMoving);
+    }
+
+    /** Searches keys numbered from _lo to _hi, where key K is rotor order
+     *  K / _settings, setting K % _settings. */
+    private final class Search extends RecursiveTask<List<Stop>> {
+
+        /** A search of keys LO .. HI-1 using rotor orders ROTORS, with
+         *  SETTINGS settings for each. */
+        Search(Rotor[][] rotors, long settings, long lo, long hi) {
+            _rotors = rotors;
+            _settings = settings;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_hi - _lo <= LEAF_KEYS) {
+                return new Worker(_rotors).scan(_lo, _hi, _settings);
+            }
+            long mid = (_lo + _hi) >>> 1;
+            Search left = new Search(_rotors, _settings, _lo, mid);
+            left.fork();
+            List<Stop> right =
+                new Search(_rotors, _settings, mid, _hi).compute();
+            List<Stop> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+
+        /** The rotor orders. */
+        private final Rotor[][] _rotors;
+
+        /** Number of settings of each order. */
+        private final long _settings;
+
+        /** Range of keys. */
+        private final long _lo, _hi;
+    }
+
+    /** Tests keys one after another, with workspace for one thread. */
+    private final class Worker {
+
+        /** A worker for the rotor orders ROTORS. */
+        Worker(Rotor[][] rotors) {
+            int n = _size;
+            _orders = rotors;
+            _start = new int[_numRotors];
+            _posn = new int[_numRotors];
+            _scrambler = new int[_from.length][n];
+            _inner = new int[n];
+            _stamp = new int[n * n];
+            _letters = new int[n * n];
+            _partners = new int[n * n];
+            _partner = new int[n];
+        }
+
+        /** Return the stops among keys LO .. HI-1, where each rotor order
+         *  has SETTINGS settings. */
+        List<Stop> scan(long lo, long hi, long settings) {
+            ArrayList<Stop> result = new ArrayList<>();
+            int order = -1;
+            for (long key = lo; key < hi; key += 1) {
+                if (key / settings != order) {
+                    order = (int) (key / settings);
+                    _rotors = _orders[order];
+                    long s = key % settings;
+                    for (int i = _numRotors - 1; i > 0; i -= 1) {
+                        _start[i] = (int) (s % _size);
+                        s /= _size;
+                    }
+                } else {
+                    for (int i = _numRotors - 1; i > 0; i -= 1) {
+                        _start[i] += 1;
+                        if (_start[i] < _size) {
+                            break;
+                        }
+                        _start[i] = 0;
+                    }
+                }
+                setScramblers();
+                if (test()) {
+                    result.add(stop());
+                }
+            }
+            return result;
+        }
+
+        /** Fill _scrambler with the unsteckered conversions at each
+         *  position of the crib, starting from _start.  The rotors are
+         *  moved to the start of the crib in one seek (see
+         *  Machine.advance), whose cost does not grow with _offset. */
+        private void setScramblers() {
+            int n = _size, last = _numRotors - 1;
+            System.arraycopy(_start, 0, _posn, 0, _numRotors);
+            boolean moved = true;
+            Machine.advance(_rotors, _firstMoving, _posn, _offset);
+            for (int e = 0; e < _from.length; e += 1) {
+                moved |= step();
+                if (moved) {
+                    for (int c = 0; c < n; c += 1) {
+                        int q = c;
+                        for (int i = last - 1; i >= 0; i -= 1) {
+                            q = _rotors[i].forwardTable()[_posn[i] * n + q];
+                        }
+                        for (int i = 1; i < last; i += 1) {
+                            q = _rotors[i].backwardTable()[_posn[i] * n + q];
+                        }
+                        _inner[c] = q;
+                    }
+                    moved = false;
+                }
+                int[] forward = _rotors[last].forwardTable();
+                int[] backward = _rotors[last].backwardTable();
+                int row = _posn[last] * n;
+                int[] scrambler = _scrambler[e];
+                for (int c = 0; c < n; c += 1) {
+                    scrambler[c] = backward[row + _inner[forward[row + c]]];
+                }
+            }
+        }
+
+        /** Advance _posn by one keypress, returning true iff a rotor
+         *  other than the rightmost moved. */
+        private boolean step() {
+            int last = _numRotors - 1;
+            boolean moved = false;
+            for (int i = _firstMoving; i < last; i += 1) {
+                if (_rotors[i + 1].atNotch(_posn[i + 1])
+                    || (i > _firstMoving && _rotors[i].atNotch(_posn[i]))) {
+                    _posn[i] = _posn[i] + 1 == _size ? 0 : _posn[i] + 1;
+                    moved = true;
+                }
+            }
+            _posn[last] = _posn[last] + 1 == _size ? 0 : _posn[last] + 1;
+            return moved;
+        }
+
+        /** Return true iff some stecker partner of the test letter is
+         *  consistent with _scrambler, leaving its implied partners in
+         *  _partner (-1 where unknown). */
+        private boolean test() {
+            int n = _size;
+            if (_generation >= Integer.MAX_VALUE - n - 1) {
+                Arrays.fill(_stamp, 0);
+                _generation = 0;
+            }
+            _generation += 1;
+            int first = _generation;
+            for (int x = 0; x < n; x += 1) {
+                if (_stamp[_test * n + x] >= first) {
+                    continue;
+                }
+                if (closure(_test * n + x)) {
+                    return true;
+                }
+                _generation += 1;
+            }
+            return false;
+        }
+
+        /** Mark with _generation the registers (letter * size + partner)
+         *  implied by register START, returning true iff no letter gets
+         *  two partners, in which case _partner holds them.  Implication
+         *  is symmetric, so on finding a letter with two partners, every
+         *  register marked so far is false, and we stop there. */
+        private boolean closure(int start) {
+            int n = _size, gen = _generation;
+            Arrays.fill(_partner, -1);
+            int head = 0, tail = 0;
+            _stamp[start] = gen;
+            _letters[tail] = start / n;
+            _partners[tail++] = start % n;
+            while (head < tail) {
+                int c = _letters[head], v = _partners[head++];
+                if (_partner[c] >= 0) {
+                    return false;
+                }
+                _partner[c] = v;
+                int diagonal = v * n + c;
+                if (_stamp[diagonal] != gen) {
+                    _stamp[diagonal] = gen;
+                    _letters[tail] = v;
+                    _partners[tail++] = c;
+                }
+                for (int e : _adjacency[c]) {
+                    int other = _from[e] == c ? _to[e] : _from[e];
+                    int w = _scrambler[e][v];
+                    int next = other * n + w;
+                    if (_stamp[next] != gen) {
+                        _stamp[next] = gen;
+                        _letters[tail] = other;
+                        _partners[tail++] = w;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Return the stop for _start, _rotors, and _partner. */
+        private Stop stop() {
+            String[] names = new String[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                names[i] = _rotors[i].name();
+            }
+            StringBuilder setting = new StringBuilder();
+            for (int i = 1; i < _numRotors; i += 1) {
+                setting.append(_alphabet.toChar(_start[i]));
+            }
+            StringBuilder plugboard = new StringBuilder();
+            for (int c = 0; c < _size; c += 1) {
+                if (_partner[c] > c) {
+                    plugboard.append('(').append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_partner[c])).append(") ");
+                }
+            }
+            return new Stop(names, setting.toString(),
+                            plugboard.toString().trim());
+        }
+
+        /** The rotor orders. */
+        private final Rotor[][] _orders;
+
+        /** The current rotor order. */
+        private Rotor[] _rotors;
+
+        /** The current initial settings. */
+        private final int[] _start;
+
+        /** Settings at the current position of the crib. */
+        private final int[] _posn;
+
+        /** Entry [E][C] is the unsteckered conversion of C at the position
+         *  of menu edge E. */
+        private final int[][] _scrambler;
+
+        /** The conversion by all rotors but the rightmost at _posn. */
+        private final int[] _inner;
+
+        /** Entry letter * size + partner is the generation in which that
+         *  register was last reached. */
+        private final int[] _stamp;
+
+        /** The current generation. */
+        private int _generation;
+
+        /** Registers waiting to be followed, as letters and partners. */
+        private final int[] _letters, _partners;
+
+        /** Partners implied by the current closure, or -1. */
+        private final int[] _partner;
+    }
+
+    /** Number of keys searched by a single task. */
+    private static final long LEAF_KEYS = 1 << 12;
+
+    /** Alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of slots. */
+    private final int _numRotors;
+
+    /** First slot with a pawl. */
+    private final int _firstMoving;
+
+    /** Available rotors. */
+    private final RotorLibrary _library;
+
+    /** Offset of the crib. */
+    private final int _offset;
+
+    /** The menu: edge E joins crib letter _from[E] with cipher letter
+     *  _to[E], at position _offset + E. */
+    private final int[] _from, _to;
+
+    /** The menu edges at each letter. */
+    private final int[][] _adjacency;
+
+    /** The letter whose partners are hypothesized. */
+    private final int _test;
+
+}
@@ -0,0 +1,135 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author esun
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Rotors of the key to be found. */
+    private static final String[] KEY_ROTORS = { "B", "IV", "II", "V" };
+
+    /** Plugboard of the key to be found. */
+    private static final String PLUGBOARD = "(AB) (CK) (XZ) (MP) (TL) (DS)";
+
+    /** Plaintext of the message. */
+    private static final String PLAIN =
+        "WETTERVORHERSAGEBISKAYAHEUTEREGENANSCHLIESSENDSONNIG";
+
+    /** Return the indices in UPPER of the characters of TEXT. */
+    private static int[] toInts(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = UPPER.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /** Return the stops found using a 4-slot, 3-pawl machine for a crib
+     *  of length LEN at OFFSET in PLAIN, enciphered at SETTING, trying
+     *  the rotor orders ORDERS. */
+    private List<Bombe.Stop> search(String setting, int offset, int len,
+                                    List<String[]> orders) {
+        return search(PLAIN, setting, offset, len, orders);
+    }
+
+    /** Return the stops found using a 4-slot, 3-pawl machine for a crib
+     *  of length LEN at OFFSET in the plaintext TEXT, enciphered at
+     *  SETTING, trying the rotor orders ORDERS. */
+    private List<Bombe.Stop> search(String text, String setting, int offset,
+                                    int len, List<String[]> orders) {
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(KEY_ROTORS);
+        mach.setRotors(setting);
+        mach.setPlugboard(new Permutation(PLUGBOARD, UPPER));
+        String cipher = mach.convert(text);
+        Bombe bombe =
+            new Bombe(UPPER, 4, 3, new RotorLibrary(navalRotors()),
+                      toInts(cipher),
+                      toInts(text.substring(offset, offset + len)), offset);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            return bombe.run(orders, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Check that STOPS include the key at SETTING, with steckers that
+     *  agree with PLUGBOARD. */
+    private void checkFound(List<Bombe.Stop> stops, String setting) {
+        for (Bombe.Stop stop : stops) {
+            if (Arrays.equals(KEY_ROTORS, stop.rotors())
+                && stop.setting().equals(setting)) {
+                Permutation plugs = new Permutation(PLUGBOARD, UPPER);
+                for (String pair : stop.plugboard().split(" ")) {
+                    assertEquals(pair, pair.charAt(2),
+                                 plugs.permute(pair.charAt(1)));
+                }
+                return;
+            }
+        }
+        fail("key not found among " + stops);
+    }
+
+    @Test
+    public void checkFindsKey() {
+        List<String[]> orders =
+            Arrays.asList(new String[] { "B", "I", "II", "III" },
+                          KEY_ROTORS,
+                          new String[] { "C", "IV", "II", "V" });
+        List<Bombe.Stop> stops = search("QWE", 0, 23, orders);
+        checkFound(stops, "QWE");
+        assertTrue(stops.size() < 20);
+    }
+
+    /** The crib covers the 11th and 12th keypresses, on which the middle
+     *  rotor and then (double stepping) the left rotor move. */
+    @Test
+    public void checkCarryInCrib() {
+        List<String[]> orders = Arrays.<String[]>asList(KEY_ROTORS);
+        checkFound(search("QDP", 6, 20, orders), "QDP");
+    }
+
+    /** The crib is about a million keypresses into the message. */
+    @Test
+    public void checkDeepCrib() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1000000) {
+            text.append(PLAIN);
+        }
+        List<String[]> orders = Arrays.<String[]>asList(KEY_ROTORS);
+        int offset = text.length() - PLAIN.length();
+        checkFound(search(text.toString(), "QWE", offset, 23, orders),
+                   "QWE");
+    }
+
+    @Test
+    public void checkRotorOrders() {
+        Bombe bombe = new Bombe(UPPER, 4, 3, new RotorLibrary(navalRotors()),
+                                toInts("AB"), toInts("B"), 0);
+        assertEquals(2 * 8 * 7 * 6, bombe.rotorOrders().size());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSelfEncipherment() {
+        new Bombe(UPPER, 4, 3, new RotorLibrary(navalRotors()),
+                  toInts("ABC"), toInts("XB"), 0);
+    }
+
+}
@@ -30,7 +30,7 @@ class CharacterRange extends Alphabet {
 
     @Override
     char toChar(int index) {
-        if (!contains((char) (_first + index))) {
+        if (index < 0 || index > _last - _first) {
             throw error("character index out of range");
         }
         return (char) (_first + index);
@@ -44,6 +44,16 @@ class CharacterRange extends Alphabet {
         return ch - _first;
     }
 
+    @Override
+    char toCharUnchecked(int index) {
+        return (char) (_first + index);
+    }
+
+    @Override
+    int toIntUnchecked(char ch) {
+        return ch - _first;
+    }
+
     /** Range of characters in this Alphabet. */
     private char _first, _last;
 
@@ -0,0 +1,338 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for rotor orders and settings.  Every rotor
+ *  order and initial setting is tried with an empty plugboard, and
+ *  scored by the index of coincidence of the resulting decryption (the
+ *  chance that two of its letters chosen at random are equal), which is
+ *  higher for natural language than for random text.  The keyspace is
+ *  divided among the threads of a ForkJoinPool; each task decrypts many
+ *  settings at once with a BatchEnigma, keeps its best candidates in a
+ *  bounded heap, and the heaps are merged as the tasks finish.
+ *  @author esun
+ */
+class CoincidenceSearch {
+
+    /** A key and its score. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** Candidate number KEY of the search, at rotors ROTORS and
+         *  SETTING, with index of coincidence SCORE. */
+        Candidate(long key, String[] rotors, String setting, double score) {
+            _key = key;
+            _rotors = rotors.clone();
+            _setting = setting;
+            _score = score;
+        }
+
+        /** Return the names of the rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the initial settings of the rotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the index of coincidence of the decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Order candidates from worst to best: by score, then by
+         *  preferring earlier keys. */
+        @Override
+        public int compareTo(Candidate other) {
+            int c = Double.compare(_score, other._score);
+            return c != 0 ? c : Long.compare(other._key, _key);
+        }
+
+        /** Return me as a settings line. */
+        @Override
+        public String toString() {
+            return String.format("* %s %s", String.join(" ", _rotors),
+                                 _setting);
+        }
+
+        /** Number of the key. */
+        private final long _key;
+
+        /** Names of the rotors. */
+        private final String[] _rotors;
+
+        /** Initial settings. */
+        private final String _setting;
+
+        /** Index of coincidence. */
+        private final double _score;
+    }
+
+    /** The outcome of a search. */
+    static final class Result {
+
+        /** The result of trying COUNT candidates in NANOS nanoseconds,
+         *  of which the best were BEST, best first. */
+        Result(List<Candidate> best, long count, long nanos) {
+            _best = best;
+            _count = count;
+            _nanos = nanos;
+        }
+
+        /** Return the best candidates, best first. */
+        List<Candidate> best() {
+            return _best;
+        }
+
+        /** Return the number of candidates tried. */
+        long candidates() {
+            return _count;
+        }
+
+        /** Return the time taken, in seconds. */
+        double seconds() {
+            return _nanos / 1e9;
+        }
+
+        /** Return the number of candidates tried per second. */
+        double candidatesPerSecond() {
+            return _count / Math.max(seconds(), 1e-9);
+        }
+
+        /** Best candidates. */
+        private final List<Candidate> _best;
+
+        /** Number of candidates. */
+        private final long _count;
+
+        /** Time taken. */
+        private final long _nanos;
+    }
+
+    /** A search, using the configuration of MACHINE (whose own rotors
+     *  and plugboard are untouched), for the keys giving the TOP highest
+     *  indices of coincidence for the decryption of CIPHER (as indices
+     *  into the alphabet). */
+    CoincidenceSearch(Machine machine, int[] cipher, int top) {
+        if (cipher.length < 2) {
+            throw error("ciphertext too short");
+        }
+        if (top <= 0) {
+            throw error("number of candidates must be positive");
+        }
+        _machine = machine.copy();
+        _cipher = cipher.clone();
+        _top = top;
+        _size = machine.alphabet().size();
+        _numRotors = machine.numRotors();
+        _plugboard = new Permutation("", machine.alphabet());
+    }
+
+    /** Search all valid rotor orders of my machine, using POOL. */
+    Result run(ForkJoinPool pool) {
+        return run(_machine.library().rotorOrders(_numRotors,
+                                                  _machine.numPawls()),
+                   pool);
+    }
+
+    /** Search the rotor orders ORDERS (each the names of the rotors,
+     *  reflector first), using POOL. */
+    Result run(List<String[]> orders, ForkJoinPool pool) {
+        String[][] names = orders.toArray(new String[0][]);
+        Machine check = _machine.copy();
+        for (String[] order : names) {
+            check.insertRotors(order);
+        }
+        long settings = 1;
+        for (int i = 1; i < _numRotors; i += 1) {
+            settings = Math.multiplyExact(settings, _size);
+        }
+        long count = Math.multiplyExact(settings, names.length);
+        long start = System.nanoTime();
+        PriorityQueue<Candidate> best =
+            pool.invoke(new Search(names, settings, 0, count));
+        long nanos = System.nanoTime() - start;
+        ArrayList<Candidate> result = new ArrayList<>(best);
+        result.sort(Collections.reverseOrder());
+        return new Result(result, count, nanos);
+    }
+
+    /** Add the candidates of FROM to INTO, keeping the best _top. */
+    private void merge(PriorityQueue<Candidate> into,
+                       PriorityQueue<Candidate> from) {
+        for (Candidate c : from) {
+            into.add(c);
+            if (into.size() > _top) {
+                into.poll();
+            }
+        }
+    }
+
+    /** Searches keys numbered from _lo to _hi, where key K is rotor order
+     *  K / _settings, setting K % _settings. */
+    private final class Search
+        extends RecursiveTask<PriorityQueue<Candidate>> {
+
+        /** A search of keys LO .. HI-1 using rotor orders ORDERS, with
+         *  SETTINGS settings for each. */
+        Search(String[][] orders, long settings, long lo, long hi) {
+            _orders = orders;
+            _settings = settings;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<Candidate> compute() {
+            if (_hi - _lo <= LEAF_KEYS) {
+                return new Worker(_orders).scan(_lo, _hi, _settings);
+            }
+            long mid = (_lo + _hi) >>> 1;
+            Search left = new Search(_orders, _settings, _lo, mid);
+            left.fork();
+            PriorityQueue<Candidate> right =
+                new Search(_orders, _settings, mid, _hi).compute();
+            PriorityQueue<Candidate> result = left.join();
+            merge(result, right);
+            return result;
+        }
+
+        /** The rotor orders. */
+        private final String[][] _orders;
+
+        /** Number of settings of each order. */
+        private final long _settings;
+
+        /** Range of keys. */
+        private final long _lo, _hi;
+    }
+
+    /** Scores keys in batches, with workspace for one thread. */
+    private final class Worker {
+
+        /** A worker for the rotor orders ORDERS. */
+        Worker(String[][] orders) {
+            _orders = orders;
+            _machine = CoincidenceSearch.this._machine.copy();
+            _batch = new int[BatchEnigma.DEFAULT_LANES][_numRotors];
+            _out = new int[BatchEnigma.DEFAULT_LANES][_cipher.length];
+            _counts = new int[_size];
+        }
+
+        /** Return the best _top of keys LO .. HI-1, where each rotor
+         *  order has SETTINGS settings. */
+        PriorityQueue<Candidate> scan(long lo, long hi, long settings) {
+            PriorityQueue<Candidate> best = new PriorityQueue<>();
+            long pairs = (long) _cipher.length * (_cipher.length - 1);
+            BatchEnigma converter = null;
+            int order = -1;
+            for (long key = lo; key < hi; ) {
+                if (key / settings != order) {
+                    order = (int) (key / settings);
+                    _machine.insertRotors(_orders[order]);
+                    _machine.setPlugboard(_plugboard);
+                    converter = new BatchEnigma(_machine);
+                }
+                long end = Math.min(Math.min(hi, (order + 1) * settings),
+                                    key + _batch.length);
+                int width = (int) (end - key);
+                for (int k = 0; k < width; k += 1) {
+                    long s = (key + k) % settings;
+                    int[] posn = _batch[k];
+                    for (int i = _numRotors - 1; i > 0; i -= 1) {
+                        posn[i] = (int) (s % _size);
+                        s /= _size;
+                    }
+                }
+                converter.convert(_cipher, _cipher.length, _batch, width,
+                                  _out);
+                for (int k = 0; k < width; k += 1) {
+                    double score = (double) coincidences(_out[k]) / pairs;
+                    if (best.size() < _top || score >= best.peek()._score) {
+                        best.add(candidate(key + k, order, settings, score));
+                        if (best.size() > _top) {
+                            best.poll();
+                        }
+                    }
+                }
+                key = end;
+            }
+            return best;
+        }
+
+        /** Return the number of ordered pairs of equal letters in TEXT,
+         *  of length _cipher.length. */
+        private long coincidences(int[] text) {
+            int[] counts = _counts;
+            Arrays.fill(counts, 0);
+            for (int j = 0; j < _cipher.length; j += 1) {
+                counts[text[j]] += 1;
+            }
+            long result = 0;
+            for (int f : counts) {
+                result += (long) f * (f - 1);
+            }
+            return result;
+        }
+
+        /** Return the candidate for KEY, using rotor order ORDER, where
+         *  each order has SETTINGS settings, scoring SCORE. */
+        private Candidate candidate(long key, int order, long settings,
+                                    double score) {
+            char[] setting = new char[_numRotors - 1];
+            long s = key % settings;
+            for (int i = setting.length - 1; i >= 0; i -= 1) {
+                setting[i] = _machine.alphabet().toChar((int) (s % _size));
+                s /= _size;
+            }
+            return new Candidate(key, _orders[order], new String(setting),
+                                 score);
+        }
+
+        /** The rotor orders. */
+        private final String[][] _orders;
+
+        /** My machine, holding the current rotor order. */
+        private final Machine _machine;
+
+        /** Initial settings of a batch of keys. */
+        private final int[][] _batch;
+
+        /** Decryptions of a batch of keys. */
+        private final int[][] _out;
+
+        /** Letter counts of one decryption. */
+        private final int[] _counts;
+    }
+
+    /** Number of keys searched by a single task. */
+    private static final long LEAF_KEYS = 1 << 13;
+
+    /** Configuration of the machines. */
+    private final Machine _machine;
+
+    /** The ciphertext. */
+    private final int[] _cipher;
+
+    /** Number of candidates kept. */
+    private final int _top;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of slots. */
+    private final int _numRotors;
+
+    /** The empty plugboard. */
+    private final Permutation _plugboard;
+
+}
@@ -0,0 +1,65 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CoincidenceSearch class.
+ *  @author esun
+ */
+public class CoincidenceSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Plaintext of the message. */
+    private static final String PLAIN =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOM"
+        + "ITWASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCH"
+        + "OFINCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESS"
+        + "ITWASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIR";
+
+    @Test
+    public void checkFindsKey() {
+        String[] key = { "B", "IV", "II", "V" };
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(key);
+        mach.setRotors("QDP");
+        mach.setPlugboard(new Permutation("", UPPER));
+        String cipher = mach.convert(PLAIN);
+        int[] msg = new int[cipher.length()];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = UPPER.toInt(cipher.charAt(i));
+        }
+        List<String[]> orders =
+            Arrays.asList(new String[] { "C", "I", "II", "III" }, key);
+        int[] posn = mach.positions();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        CoincidenceSearch.Result result;
+        try {
+            result = new CoincidenceSearch(mach, msg, 3).run(orders, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(posn, mach.positions());
+        assertEquals(2 * 26 * 26 * 26, result.candidates());
+        assertTrue(result.candidatesPerSecond() > 0);
+        List<CoincidenceSearch.Candidate> best = result.best();
+        assertEquals(3, best.size());
+        assertTrue(Arrays.equals(key, best.get(0).rotors()));
+        assertEquals("QDP", best.get(0).setting());
+        assertEquals("* B IV II V QDP", best.get(0).toString());
+        assertTrue(best.get(0).score() > best.get(1).score());
+        assertTrue(best.get(1).score() >= best.get(2).score());
+    }
+
+}
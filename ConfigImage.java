@@ -0,0 +1,276 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A configuration in a compact binary form that loads without parsing:
+ *  the alphabet, the numbers of slots and pawls, and for each rotor its
+ *  kind, name, wiring and inverse wiring as tables, and notches as a bit
+ *  mask.  On reading, rotors are only indexed; each is built from its
+ *  tables in the image when first used (see RotorLibrary).  An image
+ *  starts with a header of MAGIC, VERSION, the length of the rest, and
+ *  its CRC-32 checksum; an image in another format is rejected and must
+ *  be recompiled, and one whose checksum does not match is rejected as
+ *  damaged.  The rest is a
+ *  flag byte (bit 0 set if messages are printed in upper case), then
+ *  the alphabet size N and the N characters, the numbers of slots,
+ *  pawls, and rotors, and for each rotor, a kind byte ('M', 'N', or
+ *  'R'), the length of its name and its characters, its N wiring and N
+ *  inverse wiring entries as chars, and its notch mask as (N + 63) / 64
+ *  longs.
+ *  @author esun
+ */
+class ConfigImage {
+
+    /** First four bytes of every image: a NUL and a 0xff byte, which no
+     *  text configuration starts with, then "EN". */
+    static final int MAGIC = 0x00ff454e;
+
+    /** Version of the image format. */
+    static final int VERSION = 2;
+
+    /** First four bytes of an image of version 1 ("ENIG"), which a text
+     *  configuration may also start with.  Such an image is recognized
+     *  only with its version following. */
+    private static final int OLD_MAGIC = 0x454e4947;
+
+    /** A configuration whose alphabet is ALPHA, printed in upper case
+     *  iff UPPERCASE, with NUMROTORS slots, PAWLS pawls, and the rotors
+     *  in LIBRARY. */
+    ConfigImage(Alphabet alpha, boolean upperCase, int numRotors, int pawls,
+                RotorLibrary library) {
+        _alphabet = alpha;
+        _upperCase = upperCase;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        _library = library;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return true iff messages are printed in upper case. */
+    boolean upperCase() {
+        return _upperCase;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the available rotors. */
+    RotorLibrary library() {
+        return _library;
+    }
+
+    /** Return true iff the file PATH exists and starts with MAGIC, or
+     *  with OLD_MAGIC and version 1. */
+    static boolean isImage(Path path) {
+        try (FileChannel in = FileChannel.open(path)) {
+            ByteBuffer start = ByteBuffer.allocate(2 * Integer.BYTES);
+            while (start.hasRemaining() && in.read(start) >= 0) {
+                continue;
+            }
+            if (start.position() < Integer.BYTES) {
+                return false;
+            }
+            int magic = start.getInt(0);
+            return magic == MAGIC
+                || (magic == OLD_MAGIC && !start.hasRemaining()
+                    && start.getInt(Integer.BYTES) == 1);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the configuration in the image file PATH, keeping at most
+     *  CAPACITY of its rotors built at once. */
+    static ConfigImage read(Path path, int capacity) {
+        ByteBuffer image;
+        try (FileChannel in = FileChannel.open(path)) {
+            long size = in.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw error("configuration image %s is damaged", path);
+            }
+            image = ByteBuffer.allocate((int) size);
+            while (image.hasRemaining() && in.read(image) >= 0) {
+                continue;
+            }
+            image.flip();
+        } catch (IOException excp) {
+            throw error("could not open %s", path);
+        }
+        if (image.getInt() != MAGIC || image.getInt() != VERSION) {
+            throw error("configuration image %s is in an old or unknown "
+                        + "format; recompile it", path);
+        }
+        int length = image.getInt();
+        int checksum = image.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(image.duplicate());
+        if (length != image.remaining() || checksum != (int) crc.getValue()) {
+            throw error("configuration image %s is damaged", path);
+        }
+        try {
+            return decode(image, capacity);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | NegativeArraySizeException excp) {
+            throw error("configuration image %s is damaged", path);
+        }
+    }
+
+    /** Write me as an image to the file PATH. */
+    void write(Path path) {
+        ByteBuffer body = encode();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(body.remaining())
+            .putInt((int) crc.getValue()).flip();
+        try (FileChannel out =
+             FileChannel.open(path, StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = { header, body };
+            while (body.hasRemaining()) {
+                out.write(buffers);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", path);
+        }
+    }
+
+    /** Return the body of my image, ready to be written. */
+    private ByteBuffer encode() {
+        int n = _alphabet.size();
+        int size = 1 + Integer.BYTES * 4 + Character.BYTES * n;
+        for (int k = 0; k < _library.size(); k += 1) {
+            Rotor r = _library.get(k);
+            size += 1 + Character.BYTES * (1 + r.name().length())
+                + Character.BYTES * 2 * n + Long.BYTES * maskLength(n);
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put((byte) (_upperCase ? UPPER_CASE : 0));
+        body.putInt(n);
+        for (int i = 0; i < n; i += 1) {
+            body.putChar(_alphabet.toChar(i));
+        }
+        body.putInt(_numRotors).putInt(_numPawls).putInt(_library.size());
+        for (int k = 0; k < _library.size(); k += 1) {
+            Rotor r = _library.get(k);
+            body.put((byte) (r.reflecting() ? 'R' : r.rotates() ? 'M' : 'N'));
+            body.putChar((char) r.name().length());
+            for (int i = 0; i < r.name().length(); i += 1) {
+                body.putChar(r.name().charAt(i));
+            }
+            Permutation perm = r.permutation();
+            for (int p = 0; p < n; p += 1) {
+                body.putChar((char) perm.permute(p));
+            }
+            for (int p = 0; p < n; p += 1) {
+                body.putChar((char) perm.invert(p));
+            }
+            long[] mask = new long[maskLength(n)];
+            for (int p = 0; p < n; p += 1) {
+                if (r.atNotch(p)) {
+                    mask[p / Long.SIZE] |= 1L << p;
+                }
+            }
+            for (long word : mask) {
+                body.putLong(word);
+            }
+        }
+        return body.flip();
+    }
+
+    /** Return the configuration whose image body is the rest of IMAGE,
+     *  keeping at most CAPACITY of its rotors built at once. */
+    private static ConfigImage decode(ByteBuffer image, int capacity) {
+        boolean upperCase = (image.get() & UPPER_CASE) != 0;
+        char[] chars = new char[image.getInt()];
+        image.asCharBuffer().get(chars);
+        image.position(image.position() + Character.BYTES * chars.length);
+        Alphabet alpha = new ExtraRange(chars);
+        int n = chars.length;
+        int numRotors = image.getInt(), pawls = image.getInt();
+        RotorLibrary library = new RotorLibrary(alpha, capacity);
+        for (int k = image.getInt(); k > 0; k -= 1) {
+            char kind = (char) image.get();
+            char[] name = new char[image.getChar()];
+            for (int i = 0; i < name.length; i += 1) {
+                name[i] = image.getChar();
+            }
+            int wiring = image.position();
+            image.position(wiring + Character.BYTES * 2 * n);
+            StringBuilder notches = new StringBuilder();
+            for (int w = 0; w < maskLength(n); w += 1) {
+                long word = image.getLong();
+                for (; word != 0; word &= word - 1) {
+                    notches.append(alpha.toChar(w * Long.SIZE
+                        + Long.numberOfTrailingZeros(word)));
+                }
+            }
+            library.add(new String(name), kind, notches.toString(),
+                        a -> wiring(image, wiring, a));
+        }
+        return new ConfigImage(alpha, upperCase, numRotors, pawls, library);
+    }
+
+    /** Return the wiring of a rotor over ALPHA whose tables start at
+     *  byte OFFSET of IMAGE. */
+    private static Permutation wiring(ByteBuffer image, int offset,
+                                      Alphabet alpha) {
+        int n = alpha.size();
+        int[] forward = new int[n], inverse = new int[n];
+        for (int p = 0; p < n; p += 1) {
+            forward[p] = image.getChar(offset + Character.BYTES * p);
+            inverse[p] = image.getChar(offset + Character.BYTES * (n + p));
+        }
+        for (int p = 0; p < n; p += 1) {
+            if (forward[p] >= n || inverse[forward[p]] != p) {
+                throw error("damaged rotor wiring in configuration image");
+            }
+        }
+        return new Permutation(forward, inverse, alpha);
+    }
+
+    /** Return the number of longs in the notch mask of a rotor with
+     *  alphabet size N. */
+    private static int maskLength(int n) {
+        return (n + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    /** Flag bit for upper-case output. */
+    private static final int UPPER_CASE = 1;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** True iff messages are printed in upper case. */
+    private final boolean _upperCase;
+
+    /** Numbers of slots and pawls. */
+    private final int _numRotors, _numPawls;
+
+    /** The available rotors. */
+    private final RotorLibrary _library;
+
+}
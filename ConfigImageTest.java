@@ -0,0 +1,178 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author esun
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a new temporary file holding an image of a 5-slot, 3-pawl
+     *  machine with the naval rotors (named in upper case, as Main reads
+     *  them), whose messages are printed in upper case iff UPPERCASE. */
+    static Path navalImage(boolean upperCase) throws IOException {
+        RotorLibrary library = new RotorLibrary(UPPER, 0);
+        for (Rotor r : navalRotors()) {
+            library.add(r.name().toUpperCase(),
+                        r.reflecting() ? 'R' : r.rotates() ? 'M' : 'N',
+                        NOTCHES.getOrDefault(r.name(), ""),
+                        alpha -> r.permutation());
+        }
+        Path image = Files.createTempFile("enigma", ".img");
+        new ConfigImage(UPPER, upperCase, 5, 3, library).write(image);
+        return image;
+    }
+
+    /** Return the configuration in a ConfigImage written from the naval
+     *  rotors and read back, using the file IMAGE. */
+    private ConfigImage roundTrip(Path image) {
+        new ConfigImage(UPPER, false, 5, 3, new RotorLibrary(navalRotors()))
+            .write(image);
+        assertTrue(ConfigImage.isImage(image));
+        return ConfigImage.read(image, 4);
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Path image = Files.createTempFile("enigma", ".img");
+        try {
+            ConfigImage config = roundTrip(image);
+            assertFalse(config.upperCase());
+            assertEquals(5, config.numRotors());
+            assertEquals(3, config.numPawls());
+            assertEquals(UPPER_STRING.length(), config.alphabet().size());
+            for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+                assertEquals(UPPER_STRING.charAt(i),
+                             config.alphabet().toChar(i));
+            }
+            HashMap<String, Rotor> naval = new HashMap<>();
+            for (Rotor r : navalRotors()) {
+                naval.put(r.name(), r);
+            }
+            RotorLibrary library = config.library();
+            assertEquals(naval.size(), library.size());
+            for (int k = 0; k < library.size(); k += 1) {
+                Rotor r = library.get(k);
+                Rotor expected = naval.get(r.name());
+                assertNotNull(expected);
+                assertEquals(expected.getClass(), r.getClass());
+                for (int p = 0; p < UPPER.size(); p += 1) {
+                    assertEquals(expected.atNotch(p), r.atNotch(p));
+                    assertEquals(expected.permutation().permute(p),
+                                 r.permutation().permute(p));
+                    assertEquals(expected.permutation().invert(p),
+                                 r.permutation().invert(p));
+                }
+            }
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void checkDamaged() throws IOException {
+        Path image = Files.createTempFile("enigma", ".img");
+        try {
+            roundTrip(image);
+            try (FileChannel file =
+                 FileChannel.open(image, StandardOpenOption.READ,
+                                  StandardOpenOption.WRITE)) {
+                ByteBuffer b = ByteBuffer.allocate(1);
+                file.read(b, file.size() / 2);
+                b.put(0, (byte) ~b.get(0));
+                file.write(b.rewind(), file.size() / 2);
+            }
+            ConfigImage.read(image, 4);
+            fail("damaged image was read");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("damaged"));
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void checkTextIsNotImage() throws IOException {
+        Path text = Files.createTempFile("enigma", ".conf");
+        try {
+            Files.write(text, "A-Z\n5 3\n".getBytes());
+            assertFalse(ConfigImage.isImage(text));
+        } finally {
+            Files.delete(text);
+        }
+    }
+
+    /** Return the output of Main run on the configuration CONFIG and the
+     *  messages INPUT. */
+    private static String run(Path config, String input) throws IOException {
+        Path in = Files.createTempFile("enigma", ".in");
+        Path out = Files.createTempFile("enigma", ".out");
+        try {
+            Files.write(in, input.getBytes());
+            new Main(new String[] { config.toString(), in.toString(),
+                                    out.toString() }).process();
+            return new String(Files.readAllBytes(out));
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void checkTextStartingLikeOldImage() throws IOException {
+        StringBuilder text =
+            new StringBuilder("ENIGMABCDFHJKLOPQRSTUVWXYZ 5 3\n");
+        for (Rotor r : navalRotors()) {
+            text.append(r.name()).append(' ')
+                .append(r.reflecting() ? "R" : r.rotates() ? "M" : "N")
+                .append(NOTCHES.getOrDefault(r.name(), "")).append(' ')
+                .append(NAVALA.get(r.name())).append('\n');
+        }
+        Path config = Files.createTempFile("enigma", ".conf");
+        try {
+            Files.write(config, text.toString().getBytes());
+            assertFalse(ConfigImage.isImage(config));
+            String settings = "* B Beta III IV I AXLE (HQ) (EX)\n";
+            String cipher = run(config, settings + "HELLO WORLD\n");
+            assertEquals("HELLO WORLD \n", run(config, settings + cipher));
+        } finally {
+            Files.delete(config);
+        }
+    }
+
+    @Test
+    public void checkOldImage() throws IOException {
+        Path image = Files.createTempFile("enigma", ".img");
+        try {
+            ByteBuffer old = ByteBuffer.allocate(64);
+            old.putInt(0x454e4947).putInt(1).putInt(48);
+            Files.write(image, old.array());
+            assertTrue(ConfigImage.isImage(image));
+            ConfigImage.read(image, 4);
+            fail("old image was read");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("recompile"));
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A differential checker for Enigma engines.  It sets up an engine and
+ *  the reference engine identically with randomly chosen rotors,
+ *  settings, and plugboard, applies the same random sequence of
+ *  conversions, seeks, snapshots, and copies to both, and reports the
+ *  first point at which they disagree.
+ *  @author esun
+ */
+class EngineChecker {
+
+    /** A checker drawing configurations of machines with alphabet ALPHA,
+     *  NUMROTORS slots, and PAWLS pawls from the rotors ROTORS, using
+     *  RANDOM for all choices. */
+    EngineChecker(Alphabet alpha, int numRotors, int pawls,
+                  Collection<Rotor> rotors, Random random) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        _rotors = new ArrayList<>(rotors);
+        _random = random;
+        StringBuilder probe = new StringBuilder();
+        for (int i = 0; i < PROBE_LENGTH; i += 1) {
+            probe.append(alpha.toChar(i % alpha.size()));
+        }
+        _probe = probe.toString();
+    }
+
+    /** Compare the engine named NAME (as for EnigmaEngine.create) with
+     *  the reference engine on TRIALS random configurations, each
+     *  subjected to OPERATIONS random operations on messages of at most
+     *  MAXLENGTH characters.  Returns null if they always agree, and
+     *  otherwise a description of the first disagreement. */
+    String check(String name, int trials, int operations, int maxLength) {
+        for (int t = 0; t < trials; t += 1) {
+            String[] slots = randomRotors();
+            String setting = randomSetting();
+            String plugs = randomPlugboard();
+            EnigmaEngine engine =
+                EnigmaEngine.create(name, _alphabet, _numRotors, _numPawls,
+                                    _rotors);
+            EnigmaEngine reference =
+                EnigmaEngine.create(EnigmaEngine.REFERENCE, _alphabet,
+                                    _numRotors, _numPawls, _rotors);
+            for (EnigmaEngine e : new EnigmaEngine[] { engine, reference }) {
+                e.insertRotors(slots);
+                e.setRotors(setting);
+                e.setPlugboard(new Permutation(plugs, _alphabet));
+            }
+            for (int k = 0; k < operations; k += 1) {
+                int op = _random.nextInt(NUM_OPERATIONS);
+                String expected, actual;
+                switch (op) {
+                case CONVERT:
+                    String msg = randomMessage(maxLength);
+                    expected = reference.convert(msg);
+                    actual = engine.convert(msg);
+                    break;
+                case CONVERT_ONE:
+                    int c = _random.nextInt(_alphabet.size());
+                    expected = Integer.toString(reference.convert(c));
+                    actual = Integer.toString(engine.convert(c));
+                    break;
+                case ADVANCE:
+                    long n = _random.nextInt(
+                        _alphabet.size() * _alphabet.size() * _numRotors);
+                    reference.advance(n);
+                    engine.advance(n);
+                    expected = reference.convert(_probe);
+                    actual = engine.convert(_probe);
+                    break;
+                case SNAPSHOT:
+                    long refState = reference.snapshot();
+                    long state = engine.snapshot();
+                    String before = engine.convert(_probe);
+                    reference.restore(refState);
+                    engine.restore(state);
+                    expected = before + reference.convert(_probe);
+                    actual = before + engine.convert(_probe);
+                    break;
+                default:
+                    reference = reference.copy();
+                    engine = engine.copy();
+                    expected = reference.convert(_probe);
+                    actual = engine.convert(_probe);
+                    break;
+                }
+                if (!expected.equals(actual)) {
+                    return String.format("%s engine, trial %d (rotors %s,"
+                                         + " setting %s, plugboard %s),"
+                                         + " operation %d (%s): expected"
+                                         + " %s, got %s",
+                                         name, t, String.join(" ", slots),
+                                         setting, plugs, k, OP_NAMES[op],
+                                         expected, actual);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the names of a random valid choice of rotors for my
+     *  slots, reflector first. */
+    private String[] randomRotors() {
+        ArrayList<Rotor> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : _rotors) {
+            if (r.reflecting()) {
+                reflectors.add(r);
+            } else if (r.rotates()) {
+                moving.add(r);
+            } else {
+                fixed.add(r);
+            }
+        }
+        int firstMoving = _numRotors - _numPawls;
+        if (reflectors.isEmpty() || fixed.size() < firstMoving - 1
+            || moving.size() < _numPawls) {
+            throw error("not enough rotors for %d slots and %d pawls",
+                        _numRotors, _numPawls);
+        }
+        Collections.shuffle(reflectors, _random);
+        Collections.shuffle(fixed, _random);
+        Collections.shuffle(moving, _random);
+        String[] result = new String[_numRotors];
+        result[0] = reflectors.get(0).name();
+        for (int i = 1; i < _numRotors; i += 1) {
+            result[i] = i < firstMoving ? fixed.get(i - 1).name()
+                : moving.get(i - firstMoving).name();
+        }
+        return result;
+    }
+
+    /** Return a random rotor setting string. */
+    private String randomSetting() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < _numRotors; i += 1) {
+            result.append(randomChar());
+        }
+        return result.toString();
+    }
+
+    /** Return a random plugboard, in cycle notation. */
+    private String randomPlugboard() {
+        ArrayList<Character> chars = new ArrayList<>();
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            chars.add(_alphabet.toChar(i));
+        }
+        Collections.shuffle(chars, _random);
+        int pairs = _random.nextInt(chars.size() / 2 + 1);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < pairs; i += 1) {
+            result.append('(').append(chars.get(2 * i))
+                .append(chars.get(2 * i + 1)).append(") ");
+        }
+        return result.toString();
+    }
+
+    /** Return a random message of at most MAXLENGTH characters from my
+     *  alphabet and blanks. */
+    private String randomMessage(int maxLength) {
+        int len = _random.nextInt(maxLength + 1);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            result.append(_random.nextInt(BLANK_ODDS) == 0 ? ' '
+                          : randomChar());
+        }
+        return result.toString();
+    }
+
+    /** Return a random character of my alphabet. */
+    private char randomChar() {
+        return _alphabet.toChar(_random.nextInt(_alphabet.size()));
+    }
+
+    /** Kinds of operation. */
+    private static final int CONVERT = 0, CONVERT_ONE = 1, ADVANCE = 2,
+        SNAPSHOT = 3, NUM_OPERATIONS = 5;
+
+    /** Names of the kinds of operation, for reports. */
+    private static final String[] OP_NAMES = {
+        "convert", "convert one", "advance", "snapshot", "copy"
+    };
+
+    /** A blank appears in a random message once in this many
+     *  characters, on average. */
+    private static final int BLANK_ODDS = 8;
+
+    /** Length of _probe. */
+    private static final int PROBE_LENGTH = 64;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Numbers of slots and pawls. */
+    private final int _numRotors, _numPawls;
+
+    /** The available rotors. */
+    private final ArrayList<Rotor> _rotors;
+
+    /** Source of random choices. */
+    private final Random _random;
+
+    /** Message converted to compare the states of the engines. */
+    private final String _probe;
+
+}
@@ -0,0 +1,76 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** Differential tests of the Enigma engines against the reference
+ *  engine.
+ *  @author esun
+ */
+public class EngineCheckerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Return a checker over the naval rotors with 5 slots and 3 pawls. */
+    private EngineChecker checker(long seed) {
+        return new EngineChecker(UPPER, 5, 3, navalRotors(),
+                                 new Random(seed));
+    }
+
+    @Test
+    public void checkMachine() {
+        assertNull(checker(1).check(EnigmaEngine.MACHINE, 100, 20, 200));
+    }
+
+    @Test
+    public void checkCompiled() {
+        assertNull(checker(2).check(EnigmaEngine.COMPILED, 20, 20, 200));
+    }
+
+    @Test
+    public void checkReference() {
+        assertNull(checker(3).check(EnigmaEngine.REFERENCE, 10, 20, 200));
+    }
+
+    @Test
+    public void checkFindsTableError() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : navalRotors()) {
+            if (r.rotates()) {
+                r = new MovingRotor(r.name(), r.permutation(),
+                                    NOTCHES.get(r.name())) {
+                    @Override
+                    int convertForward(int p, int posn) {
+                        int q = super.convertForward(p, posn);
+                        return posn == 0 ? (q + 1) % size() : q;
+                    }
+                };
+            }
+            rotors.add(r);
+        }
+        EngineChecker checker =
+            new EngineChecker(UPPER, 5, 3, rotors, new Random(4));
+        assertNotNull(checker.check(EnigmaEngine.MACHINE, 20, 20, 200));
+    }
+
+    @Test
+    public void checkPawls() {
+        for (int pawls = 1; pawls <= 5; pawls += 1) {
+            EngineChecker checker =
+                new EngineChecker(UPPER, pawls + 3, pawls, navalRotors(),
+                                  new Random(pawls));
+            assertNull(checker.check(EnigmaEngine.MACHINE, 20, 20, 200));
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package enigma;
+
+import java.util.Collection;
+
+import static enigma.EnigmaException.*;
+
+/** An implementation of an Enigma machine.  Machine is the optimized
+ *  engine; ReferenceEngine is a plain one against which it may be checked
+ *  (see EngineChecker).  Engines are made by create, by name.
+ *  @author esun
+ */
+interface EnigmaEngine {
+
+    /** System property naming the engine Main uses. */
+    String ENGINE_PROPERTY = "enigma.engine";
+
+    /** Name of the reference engine. */
+    String REFERENCE = "reference";
+
+    /** Name of the optimized engine (Machine). */
+    String MACHINE = "machine";
+
+    /** Name of Machine always using generated code for bulk conversions
+     *  (see MachineCompiler). */
+    String COMPILED = "compiled";
+
+    /** Return a new engine of the kind named NAME with alphabet ALPHA,
+     *  1 < NUMROTORS rotor slots, and 0 <= PAWLS < NUMROTORS pawls.
+     *  ALLROTORS contains all the available rotors. */
+    static EnigmaEngine create(String name, Alphabet alpha, int numRotors,
+                               int pawls, Collection<Rotor> allRotors) {
+        return create(name, alpha, numRotors, pawls,
+                      new RotorLibrary(allRotors));
+    }
+
+    /** Return a new engine of the kind named NAME with alphabet ALPHA,
+     *  1 < NUMROTORS rotor slots, and 0 <= PAWLS < NUMROTORS pawls, whose
+     *  available rotors are those in LIBRARY. */
+    static EnigmaEngine create(String name, Alphabet alpha, int numRotors,
+                               int pawls, RotorLibrary library) {
+        switch (name) {
+        case REFERENCE:
+            return new ReferenceEngine(alpha, numRotors, pawls, library);
+        case MACHINE:
+            return new Machine(alpha, numRotors, pawls, library);
+        case COMPILED:
+            Machine machine = new Machine(alpha, numRotors, pawls, library);
+            machine.setCompileThreshold(0);
+            return machine;
+        default:
+            throw error("unknown engine: %s", name);
+        }
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors();
+
+    /** Return the number pawls (and thus rotating rotors) I have. */
+    int numPawls();
+
+    /** Set my rotor slots to the rotors named ROTORS from my set of
+     *  available rotors (ROTORS[0] names the reflector). */
+    void insertRotors(String[] rotors);
+
+    /** Set my rotors according to SETTING, which must be a string of
+     *  numRotors()-1 characters of my alphabet, leftmost rotor first
+     *  (not counting the reflector). */
+    void setRotors(String setting);
+
+    /** Set the plugboard to PLUGBOARD. */
+    void setPlugboard(Permutation plugboard);
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the machine. */
+    int convert(int c);
+
+    /** Convert the characters of BUF from OFF to OFF + LEN in place,
+     *  skipping blanks.
+     *  @return the number of converted characters, which now start
+     *  at BUF[OFF]. */
+    int convert(char[] buf, int off, int len);
+
+    /** Return the conversion of MSG, skipping blanks. */
+    default String convert(String msg) {
+        char[] buf = msg.toCharArray();
+        return new String(buf, 0, convert(buf, 0, buf.length));
+    }
+
+    /** Advance my rotors as if N >= 0 characters had been converted. */
+    void advance(long n);
+
+    /** Return the settings of my rotors packed into a long, which
+     *  restore(long) of this engine (or a copy) accepts. */
+    long snapshot();
+
+    /** Set my rotors to the settings in STATE, as returned by
+     *  snapshot(). */
+    void restore(long state);
+
+    /** Return a new engine in the same state as this one, changing
+     *  settings independently of it. */
+    EnigmaEngine copy();
+
+}
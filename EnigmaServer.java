@@ -0,0 +1,127 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A server that converts messages for any number of clients with a
+ *  single, already parsed configuration, so that clients pay neither
+ *  for starting the JVM nor for reading the configuration.  Each
+ *  connection is a session in the input format of Main: settings lines
+ *  and messages, answered by converted messages, with the output flushed
+ *  whenever the client has no complete line pending.  An error (of any
+ *  kind) ends the session with a line "Error: MESSAGE".  Each session
+ *  has its own engine and runs on its own thread.
+ *  @author esun
+ */
+class EnigmaServer {
+
+    /** Converts the messages of one session. */
+    interface Session {
+        /** Convert the messages from INPUT with ENGINE, writing the results
+         *  to OUTPUT. */
+        void run(EnigmaEngine engine, InputTokenizer input,
+                 MessageWriter output);
+    }
+
+    /** A server listening at ADDRESS, which is either a path containing
+     *  "/" (a Unix-domain socket, which must not yet exist), a port
+     *  number (on the loopback interface), or HOST:PORT.  Sessions use
+     *  engines from ENGINES and are run by SESSION. */
+    EnigmaServer(String address, Supplier<EnigmaEngine> engines,
+                 Session session) {
+        _address = address;
+        _engines = engines;
+        _session = session;
+    }
+
+    /** Accept and serve connections until an error occurs. */
+    void run() {
+        ExecutorService sessions = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocketChannel server = listen()) {
+            while (true) {
+                SocketChannel client = server.accept();
+                sessions.execute(() -> serve(client));
+            }
+        } catch (IOException excp) {
+            throw error("could not accept connections on %s", _address);
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /** Return a channel listening at _address. */
+    private ServerSocketChannel listen() {
+        try {
+            SocketAddress address;
+            ServerSocketChannel server;
+            if (_address.contains("/")) {
+                address = UnixDomainSocketAddress.of(_address);
+                server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                int colon = _address.lastIndexOf(':');
+                int port = Integer.parseInt(_address.substring(colon + 1));
+                address = colon < 0
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                            port)
+                    : new InetSocketAddress(_address.substring(0, colon),
+                                            port);
+                server = ServerSocketChannel.open();
+            }
+            server.bind(address);
+            return server;
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not listen on %s", _address);
+        }
+    }
+
+    /** Run a session with CLIENT, and close it. */
+    private void serve(SocketChannel client) {
+        try (client) {
+            InputTokenizer input =
+                new InputTokenizer(new InputStreamReader(
+                    Channels.newInputStream(client)));
+            MessageWriter output = new MessageWriter(client, SESSION_BUFFER);
+            try {
+                _session.run(_engines.get(), input, output);
+                output.flush();
+            } catch (RuntimeException excp) {
+                output.flush();
+                client.write(Charset.defaultCharset().encode(
+                    String.format("Error: %s%n", excp.getMessage())));
+            }
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** Size of a session's output buffer. */
+    private static final int SESSION_BUFFER = 1 << 13;
+
+    /** Address on which to listen. */
+    private final String _address;
+
+    /** Source of an engine for each session. */
+    private final Supplier<EnigmaEngine> _engines;
+
+    /** Runs each session. */
+    private final Session _session;
+
+}
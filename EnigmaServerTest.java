@@ -0,0 +1,148 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.ConfigImageTest.navalImage;
+import static enigma.MachineTest.*;
+
+/** The suite of all JUnit tests for the EnigmaServer class, as used by
+ *  Main.
+ *  @author esun
+ */
+public class EnigmaServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Settings line of the example from the project specification. */
+    private static final String SPEC_SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return MSG in groups of five, as Main prints it. */
+    private static String grouped(String msg) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            result.append(msg.charAt(i));
+            if (i % 5 == 4) {
+                result.append(' ');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Start Main serving the configuration IMAGE at the Unix-domain
+     *  socket SOCKET, and return a connection to it. */
+    private static SocketChannel serve(Path image, Path socket)
+        throws IOException, InterruptedException {
+        System.setProperty(Main.SERVE_PROPERTY, socket.toString());
+        try {
+            Thread server = new Thread(() -> {
+                try {
+                    new Main(new String[] { image.toString() }).process();
+                } catch (EnigmaException excp) {
+                    return;
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+            UnixDomainSocketAddress address =
+                UnixDomainSocketAddress.of(socket);
+            while (true) {
+                SocketChannel client =
+                    SocketChannel.open(StandardProtocolFamily.UNIX);
+                try {
+                    client.connect(address);
+                    return client;
+                } catch (IOException excp) {
+                    client.close();
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            System.clearProperty(Main.SERVE_PROPERTY);
+        }
+    }
+
+    /** Send TEXT on CLIENT. */
+    private static void send(SocketChannel client, String text)
+        throws IOException {
+        client.write(Charset.defaultCharset().encode(text));
+    }
+
+    @Test
+    public void checkAnswersEachBatch() throws Exception {
+        Path image = navalImage(true);
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("server");
+        try (SocketChannel client = serve(image, socket)) {
+            BufferedReader replies =
+                new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(client)));
+            Machine mach = naval(SPEC_ROTORS, "AXLE",
+                                 "(HQ) (EX) (IP) (TR) (BY)");
+
+            send(client, SPEC_SETTINGS + "\r\nFROM HIS SHOULDER\r\n");
+            assertEquals("CRLF input",
+                         grouped(mach.convert("FROM HIS SHOULDER")),
+                         replies.readLine());
+
+            send(client, "HIAWATHA\nTOOK THE CAMERA");
+            assertEquals("complete line before a partial one",
+                         grouped(mach.convert("HIAWATHA")),
+                         replies.readLine());
+
+            send(client, " OF ROSEWOOD\n\n" + SPEC_SETTINGS + "\n");
+            assertEquals("completed line",
+                         grouped(mach.convert("TOOK THE CAMERA OF "
+                                              + "ROSEWOOD")),
+                         replies.readLine());
+            assertEquals("blank line before settings", "",
+                         replies.readLine());
+
+            send(client, "MADE OF SLIDING\n");
+            mach.setRotors("AXLE");
+            assertEquals("after new settings",
+                         grouped(mach.convert("MADE OF SLIDING")),
+                         replies.readLine());
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void checkReportsBadSettings() throws Exception {
+        Path image = navalImage(true);
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("server");
+        try (SocketChannel client = serve(image, socket)) {
+            BufferedReader replies =
+                new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(client)));
+            send(client, "* B BETA III IV I AX\nFROM HIS SHOULDER\n");
+            assertTrue(replies.readLine().startsWith("Error: "));
+            assertNull("session ended", replies.readLine());
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+            Files.delete(image);
+        }
+    }
+
+}
@@ -1,6 +1,6 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import static enigma.EnigmaException.error;
 
@@ -10,19 +10,90 @@ import static enigma.EnigmaException.error;
  */
 class ExtraRange extends Alphabet {
 
-    /** HashMap for forwards Map.*/
-    private HashMap<Character, Integer> _forward;
-    /** HashMap for backwards Map.*/
-    private HashMap<Integer, Character> _backward;
+    /** Characters in order, indexed by their index in the alphabet. */
+    private final char[] _chars;
 
+    /** True if characters are looked up in a table spanning all
+     *  characters from _min through my largest, rather than by hashing. */
+    private final boolean _dense;
+
+    /** Smallest character in the alphabet. */
+    private final char _min;
+
+    /** Characters in the hash table, indexed by hash(). */
+    private final char[] _keys;
+
+    /** Alphabet indices by ch - _min (dense) or by hash(ch), with -1
+     *  marking characters not in the alphabet. */
+    private final int[] _index;
+
+    /** Multiplier and shift defining hash(). */
+    private final int _mult, _shift;
 
     /** An alphabet consisting of all characters between FIRST and LAST,
      *  inclusive.
      * @param range range of alph substring
      *  */
     ExtraRange(String range) {
-        _forward = new HashMap<>();
-        _backward = new HashMap<>();
+        this(expand(range));
+    }
+
+    /** An alphabet consisting of the characters CHARS, in order. */
+    ExtraRange(char[] chars) {
+        _chars = chars.clone();
+        char min = Character.MAX_VALUE, max = Character.MIN_VALUE;
+        for (char c : _chars) {
+            min = (char) Math.min(min, c);
+            max = (char) Math.max(max, c);
+        }
+        _min = min;
+        if (max - min < DENSE_LIMIT) {
+            _dense = true;
+            _keys = null;
+            _mult = _shift = 0;
+            _index = new int[Math.max(0, max - min + 1)];
+            Arrays.fill(_index, -1);
+            for (int i = 0; i < _chars.length; i++) {
+                if (_index[_chars[i] - min] >= 0) {
+                    throw error("duplicate characters");
+                }
+                _index[_chars[i] - min] = i;
+            }
+            return;
+        }
+
+        _dense = false;
+        int bits = 1;
+        while ((1 << bits) < 2 * _chars.length) {
+            bits += 1;
+        }
+        int mult = HASH_MULT;
+        if (bits >= Character.SIZE) {
+            bits = Character.SIZE;
+            mult = 1 << bits;
+        }
+        while (!perfectHash(mult, Integer.SIZE - bits)) {
+            mult += 2;
+            if (mult == HASH_MULT + 2 * HASH_TRIES) {
+                bits += 1;
+                mult = bits == Character.SIZE ? 1 << bits : HASH_MULT;
+            }
+        }
+        _mult = mult;
+        _shift = Integer.SIZE - bits;
+        _keys = new char[1 << bits];
+        _index = new int[1 << bits];
+        Arrays.fill(_index, -1);
+        for (int i = 0; i < _chars.length; i++) {
+            int h = hash(_chars[i]);
+            _keys[h] = _chars[i];
+            _index[h] = i;
+        }
+    }
+
+    /** Return the characters described by RANGE, in which each X-Y
+     *  between alphabetic characters stands for X through Y. */
+    private static char[] expand(String range) {
         for (int i = 1; i < range.length() - 1; i++) {
             char left = range.charAt(i - 1);
             char right = range.charAt(i + 1);
@@ -44,39 +115,89 @@ class ExtraRange extends Alphabet {
                 range = new String(temp);
             }
         }
-        for (int i = 0; i < range.length(); i++) {
-            _forward.put(range.charAt(i), i);
-            _backward.put(i, range.charAt(i));
+        return range.toCharArray();
+    }
+
+    /** Return true iff (C * MULT) >>> SHIFT takes distinct values for
+     *  the distinct characters C of _chars.  Throws an exception if
+     *  _chars contains duplicates. */
+    private boolean perfectHash(int mult, int shift) {
+        int[] seen = new int[1 << (Integer.SIZE - shift)];
+        for (char c : _chars) {
+            int h = (c * mult) >>> shift;
+            if (seen[h] != 0) {
+                if (seen[h] - 1 == c) {
+                    throw error("duplicate characters");
+                }
+                return false;
+            }
+            seen[h] = c + 1;
         }
-        if (_forward.size() != _backward.size()) {
-            throw error("duplicate characters");
+        return true;
+    }
+
+    /** Return the slot for CH in _keys and _index (hashed case). */
+    private int hash(char ch) {
+        return (ch * _mult) >>> _shift;
+    }
+
+    /** Return the index of CH, or -1 if CH is not in the alphabet. */
+    private int lookup(char ch) {
+        if (_dense) {
+            int k = ch - _min;
+            return k >= 0 && k < _index.length ? _index[k] : -1;
         }
+        int h = hash(ch);
+        return _keys[h] == ch ? _index[h] : -1;
     }
 
     @Override
     int size() {
-        return _forward.size();
+        return _chars.length;
     }
 
     @Override
     boolean contains(char ch) {
-        return _forward.containsKey(ch);
+        return lookup(ch) >= 0;
     }
 
     @Override
     char toChar(int index) {
-        if (!_backward.containsKey(index)) {
+        if (index < 0 || index >= _chars.length) {
             throw error("character index out of range");
         }
-        return _backward.get(index);
+        return _chars[index];
     }
 
     @Override
     int toInt(char ch) {
-        if (!_forward.containsKey(ch)) {
+        int index = lookup(ch);
+        if (index < 0) {
             throw error("character out of range");
         }
-        return _forward.get(ch);
+        return index;
+    }
+
+    @Override
+    char toCharUnchecked(int index) {
+        return _chars[index];
+    }
+
+    @Override
+    int toIntUnchecked(char ch) {
+        if (_dense) {
+            return _index[ch - _min];
+        }
+        return _index[hash(ch)];
     }
 
+    /** Largest span of characters looked up in a dense table. */
+    private static final int DENSE_LIMIT = 1 << 12;
+
+    /** First multiplier tried for the hash function (odd). */
+    private static final int HASH_MULT = 0x9e3779b1;
+
+    /** Number of multipliers tried for each table size. */
+    private static final int HASH_TRIES = 64;
+
 }
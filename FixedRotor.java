@@ -13,15 +13,4 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
-    @Override
-    void advance() {
-    }
-
-    @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        }
-    }
-
 }
@@ -0,0 +1,252 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static enigma.EnigmaException.*;
+
+/** Divides a stream of messages into lines, classifying each as a
+ *  settings line (first token "*"), a message line, or a blank line in a
+ *  single pass over its characters.  Each line is upper-cased into a
+ *  buffer that is reused from line to line.  Input comes either from a
+ *  Reader or directly from the bytes of a file mapped into memory, which
+ *  are taken to be ASCII (or Latin-1) characters.
+ *  @author esun
+ */
+class InputTokenizer {
+
+    /** The kinds of line. */
+    enum Kind {
+        /** A line whose first token is "*". */
+        SETTINGS,
+        /** A line with non-blank characters that is not a settings line. */
+        MESSAGE,
+        /** A line containing only whitespace. */
+        BLANK
+    }
+
+    /** A tokenizer reading from INPUT. */
+    InputTokenizer(Reader input) {
+        _input = input;
+        _file = null;
+        _windowSize = WINDOW_SIZE;
+        _buf = new char[BUFFER_SIZE];
+        _line = new char[LINE_SIZE];
+    }
+
+    /** A tokenizer reading the bytes of FILE, which is mapped into memory
+     *  a window at a time. */
+    InputTokenizer(FileChannel file) {
+        this(file, WINDOW_SIZE);
+    }
+
+    /** A tokenizer reading the bytes of FILE, which is mapped into memory
+     *  WINDOWSIZE bytes at a time. */
+    InputTokenizer(FileChannel file, long windowSize) {
+        _input = null;
+        _file = file;
+        _windowSize = windowSize;
+        _buf = new char[BUFFER_SIZE];
+        _line = new char[LINE_SIZE];
+    }
+
+    /** Read the next line, returning false if there is none.  Lines are
+     *  terminated by "\n", "\r\n", "\r", or the end of input. */
+    boolean next() {
+        int len = 0;
+        int firstNonBlank = -1;
+        boolean any = false;
+        while (true) {
+            if (_pos == _limit && !fill()) {
+                if (!any) {
+                    return false;
+                }
+                break;
+            }
+            char c = _buf[_pos++];
+            any = true;
+            if (_skipNewline) {
+                _skipNewline = false;
+                if (c == '\n') {
+                    any = false;
+                    continue;
+                }
+            }
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                _skipNewline = true;
+                break;
+            }
+            if (len == _line.length) {
+                char[] bigger = new char[2 * len];
+                System.arraycopy(_line, 0, bigger, 0, len);
+                _line = bigger;
+            }
+            if (firstNonBlank < 0 && !Character.isWhitespace(c)) {
+                firstNonBlank = len;
+            }
+            _line[len++] = Character.toUpperCase(c);
+        }
+        _end = len;
+        if (firstNonBlank < 0) {
+            _kind = Kind.BLANK;
+            _start = 0;
+        } else if (_line[firstNonBlank] == '*'
+                   && (firstNonBlank + 1 == len
+                       || Character.isWhitespace(_line[firstNonBlank + 1]))) {
+            _kind = Kind.SETTINGS;
+            _start = firstNonBlank + 1;
+        } else {
+            _kind = Kind.MESSAGE;
+            _start = 0;
+        }
+        return true;
+    }
+
+    /** Return the kind of the current line. */
+    Kind kind() {
+        return _kind;
+    }
+
+    /** Return the buffer holding the current line, upper-cased.  Its
+     *  contents are replaced by the next call to next(). */
+    char[] buffer() {
+        return _line;
+    }
+
+    /** Return the index in buffer() of the start of the current line's
+     *  text: the character after the "*" for a settings line, and 0
+     *  otherwise. */
+    int start() {
+        return _start;
+    }
+
+    /** Return the index in buffer() just past the current line. */
+    int end() {
+        return _end;
+    }
+
+    /** Return the current line's text from start() as a String. */
+    String text() {
+        return new String(_line, _start, _end - _start);
+    }
+
+    /** Return true iff the whole of the next line has already been read,
+     *  so that next() returns it without waiting for more input to
+     *  arrive.  A mapped file always has its lines available. */
+    boolean lineReady() {
+        if (_file != null) {
+            return true;
+        }
+        int i = _pos;
+        if (_skipNewline && i < _limit && _buf[i] == '\n') {
+            i += 1;
+        }
+        for (; i < _limit; i += 1) {
+            if (_buf[i] == '\n' || _buf[i] == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Refill _buf from my input, returning false at end of input. */
+    private boolean fill() {
+        if (_file != null) {
+            return fillMapped();
+        }
+        try {
+            int n;
+            do {
+                n = _input.read(_buf);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            _pos = 0;
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+    }
+
+    /** Refill _buf from the mapped window of _file, mapping the next
+     *  window when this one is used up.  Returns false at end of file. */
+    private boolean fillMapped() {
+        try {
+            if (_window == null || !_window.hasRemaining()) {
+                long size = _file.size();
+                if (_filePos >= size) {
+                    return false;
+                }
+                long len = Math.min(size - _filePos, _windowSize);
+                _window = _file.map(FileChannel.MapMode.READ_ONLY,
+                                    _filePos, len);
+                _filePos += len;
+            }
+            MappedByteBuffer window = _window;
+            char[] buf = _buf;
+            int n = Math.min(window.remaining(), buf.length);
+            for (int i = 0; i < n; i += 1) {
+                buf[i] = (char) (window.get() & BYTE_MASK);
+            }
+            _pos = 0;
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+    }
+
+    /** Size of the read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Initial size of the line buffer. */
+    private static final int LINE_SIZE = 1 << 10;
+
+    /** Number of bytes of a file mapped at once. */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Source of characters, or null if reading _file. */
+    private final Reader _input;
+
+    /** Mapped source of characters, or null if reading _input. */
+    private final FileChannel _file;
+
+    /** Number of bytes of _file mapped at once. */
+    private final long _windowSize;
+
+    /** The currently mapped part of _file. */
+    private MappedByteBuffer _window;
+
+    /** Position in _file just past _window. */
+    private long _filePos;
+
+    /** Characters read from _input, valid from _pos to _limit. */
+    private final char[] _buf;
+
+    /** Bounds of the unread characters in _buf. */
+    private int _pos, _limit;
+
+    /** True if the last line ended in "\r", so that a following "\n"
+     *  belongs to it. */
+    private boolean _skipNewline;
+
+    /** The current line. */
+    private char[] _line;
+
+    /** Bounds of the current line's text in _line. */
+    private int _start, _end;
+
+    /** The kind of the current line. */
+    private Kind _kind;
+
+}
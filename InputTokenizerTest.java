@@ -0,0 +1,158 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The suite of all JUnit tests for the InputTokenizer class.
+ *  @author esun
+ */
+public class InputTokenizerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Input exercising line terminators, settings lines, and blank
+     *  lines. */
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ)\r\n"
+        + "from his shoulder\r\n"
+        + "\r\n"
+        + "  \t\n"
+        + "\n"
+        + "   *  C Gamma I II III AAAA\r"
+        + "*X is a message\n"
+        + "* \r\r\n"
+        + "hiawatha*";
+
+    /** The lines of INPUT, as KIND:TEXT. */
+    private static final List<String> LINES = Arrays.asList(
+        "SETTINGS: B BETA III IV I AXLE (HQ)",
+        "MESSAGE:FROM HIS SHOULDER",
+        "BLANK:",
+        "BLANK:  \t",
+        "BLANK:",
+        "SETTINGS:  C GAMMA I II III AAAA",
+        "MESSAGE:*X IS A MESSAGE",
+        "SETTINGS: ",
+        "BLANK:",
+        "MESSAGE:HIAWATHA*");
+
+    /** A Reader of TEXT that returns at most one character per read, so
+     *  that every line terminator is split across reads. */
+    private static Reader trickle(String text) {
+        return new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (_next == text.length()) {
+                    return -1;
+                }
+                cbuf[off] = text.charAt(_next++);
+                return 1;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            /** Index of the next character of TEXT to return. */
+            private int _next;
+        };
+    }
+
+    /** Return the lines read by INPUT, as KIND:TEXT. */
+    private static List<String> lines(InputTokenizer input) {
+        ArrayList<String> result = new ArrayList<>();
+        while (input.next()) {
+            assertEquals(new String(input.buffer(), input.start(),
+                                    input.end() - input.start()),
+                         input.text());
+            result.add(input.kind() + ":" + input.text());
+        }
+        assertFalse("next() after the end", input.next());
+        return result;
+    }
+
+    /** Return the lines of TEXT read from a file mapped WINDOWSIZE bytes
+     *  at a time. */
+    private static List<String> mappedLines(String text, long windowSize)
+        throws IOException {
+        Path file = Files.createTempFile("enigma", ".in");
+        try {
+            Files.write(file, text.getBytes());
+            try (FileChannel channel = FileChannel.open(file)) {
+                return lines(new InputTokenizer(channel, windowSize));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkReader() {
+        assertEquals(LINES, lines(new InputTokenizer(new StringReader(INPUT))));
+        assertEquals("terminators split across reads",
+                     LINES, lines(new InputTokenizer(trickle(INPUT))));
+    }
+
+    @Test
+    public void checkMapped() throws IOException {
+        assertEquals(LINES, mappedLines(INPUT, 1L << 30));
+        for (long window = 1; window <= 8; window += 1) {
+            assertEquals("window of " + window,
+                         LINES, mappedLines(INPUT, window));
+        }
+    }
+
+    @Test
+    public void checkEmptyAndLong() throws IOException {
+        assertFalse(new InputTokenizer(new StringReader("")).next());
+        assertEquals(Arrays.asList(), mappedLines("", 4));
+        assertEquals(Arrays.asList("BLANK:", "BLANK:"),
+                     lines(new InputTokenizer(new StringReader("\n\r"))));
+
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            msg.append((char) ('a' + i % 26));
+        }
+        String line = msg.toString();
+        List<String> expected =
+            Arrays.asList("MESSAGE:" + line.toUpperCase(), "BLANK:");
+        assertEquals(expected,
+                     lines(new InputTokenizer(
+                         new StringReader(line + "\r\n\n"))));
+        assertEquals("line split across windows",
+                     expected, mappedLines(line + "\r\n\n", 4096));
+    }
+
+    @Test
+    public void checkLineReady() {
+        InputTokenizer input =
+            new InputTokenizer(new StringReader("A\r\nB\nC"));
+        assertTrue(input.next());
+        assertTrue(input.lineReady());
+        assertTrue(input.next());
+        assertFalse("partial last line", input.lineReady());
+        assertTrue(input.next());
+        assertEquals("C", input.text());
+        assertFalse(input.lineReady());
+
+        input = new InputTokenizer(new StringReader("A\r\n"));
+        assertTrue(input.next());
+        assertFalse("only the rest of a CRLF", input.lineReady());
+        assertFalse(input.next());
+    }
+
+}
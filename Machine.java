@@ -1,27 +1,31 @@
 package enigma;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The rotors'
+ *  wiring is immutable and may be shared among any number of machines
+ *  and threads; the only mutable state of a machine is its choice of
+ *  rotors, their settings, and its plugboard.  Thus copy() is cheap, and
+ *  one configuration can serve many machines converting at once.
  *  @author esun
  */
 
-class Machine {
+class Machine implements EnigmaEngine {
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
      *  available rotors. */
 
-    private int _numRotors, _numPawls;
+    private final int _numRotors, _numPawls;
 
-    /** HashMap for Rotors.*/
-    private HashMap<String, Rotor> _allRotors;
-    /** HashMap for activeRotors.*/
-    private ArrayList<Rotor> _activeRotors;
+    /** Index in _activeRotors of the leftmost rotor with a pawl. */
+    private final int _firstMoving;
+
+    /** Rotors in my slots, reflector first, built by insertRotors. */
+    private Rotor[] _activeRotors;
     /** Permutation object for plugboard.*/
     private Permutation _plugboard;
 
@@ -34,57 +38,131 @@ class Machine {
 
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
-        /** @param alpha */
+        this(alpha, numRotors, pawls, new RotorLibrary(allRotors));
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor
+     *  slots, and 0 <= PAWLS < NUMROTORS pawls, whose available rotors
+     *  are those in LIBRARY. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorLibrary library) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _numPawls = pawls;
-        _allRotors = new HashMap<>();
-        allRotors.forEach(i -> {
-            _allRotors.put(i.name(), i); });
+        _firstMoving = numRotors - pawls;
+        _size = alpha.size();
+        boolean ascii = true;
+        for (int i = 0; i < _size; i++) {
+            ascii &= alpha.toChar(i) < ASCII_LIMIT;
+        }
+        _ascii = ascii;
+        _library = library;
+        _library.reserve(numRotors);
+        _settingBits = Math.max(1, Integer.SIZE
+                                   - Integer.numberOfLeadingZeros(_size - 1));
+        _settingsPerWord = Long.SIZE / _settingBits;
+        _rotorBits =
+            Math.max(1, Integer.SIZE
+                        - Integer.numberOfLeadingZeros(_library.size() - 1));
+    }
+
+    /** A machine with the same configuration, rotors, settings, and
+     *  plugboard as ORIGINAL, sharing its rotors. */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _numPawls = original._numPawls;
+        _firstMoving = original._firstMoving;
+        _size = original._size;
+        _ascii = original._ascii;
+        _library = original._library;
+        _settingBits = original._settingBits;
+        _settingsPerWord = original._settingsPerWord;
+        _rotorBits = original._rotorBits;
+        _plugboard = original._plugboard;
+        _plain = original._plain;
+        _compiled = original._compiled;
+        _compileTried = original._compileTried;
+        _compileThreshold = original._compileThreshold;
+        if (original._activeRotors != null) {
+            _activeRotors = original._activeRotors.clone();
+            _order = original._order.clone();
+        }
+        if (original._positions != null) {
+            _positions = original._positions.clone();
+        }
+        if (original._initialPositions != null) {
+            _initialPositions = original._initialPositions.clone();
+        }
+    }
 
+    /** Return a new machine in the same state as this one.  The two
+     *  share their rotors but change settings independently, so they may
+     *  be used by different threads. */
+    @Override
+    public Machine copy() {
+        return new Machine(this);
     }
 
     /** Return the number of rotor slots I have. */
-    int numRotors() {
+    @Override
+    public int numRotors() {
         return _numRotors;
     }
 
     /** Return the number pawls (and thus rotating rotors) I have. */
-    int numPawls() {
+    @Override
+    public int numPawls() {
         return _numPawls;
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
-    void insertRotors(String[] rotors) {
-        _activeRotors = new ArrayList<>();
-        for (String r:rotors) {
-            _activeRotors.add(_allRotors.get(r));
+    @Override
+    public void insertRotors(String[] rotors) {
+        Rotor[] active = new Rotor[rotors.length];
+        int[] order = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i++) {
+            order[i] = _library.indexOf(rotors[i]);
+            active[i] = order[i] < 0 ? null : _library.get(order[i]);
+        }
+        validateRotors(active, order, _firstMoving);
+        if (!Arrays.equals(active, _activeRotors)) {
+            _compileTried = false;
         }
-        validateRotors();
+        _activeRotors = active;
+        _order = order;
+        _positions = new int[active.length];
+        _plain = UNKNOWN;
+        _initialPositions = null;
     }
 
-    /** validate. */
-    private void validateRotors() {
-        HashSet<String> names = new HashSet<>();
-        for (Rotor r : _activeRotors) {
-            if (r == null) {
+    /** validate.  Repeats are found by number, since a rotor built from
+     *  a definition may be rebuilt as a new object at any time.
+     * @param active rotors to be placed in my slots
+     * @param order numbers in the library of the rotors (-1 if not found)
+     * @param firstMoving index of the first slot with a pawl
+     */
+    static void validateRotors(Rotor[] active, int[] order,
+                               int firstMoving) {
+        for (int i = 0; i < active.length; i++) {
+            if (order[i] < 0) {
                 throw error("Rotor not found");
             }
-            if (names.contains(r.name())) {
-                throw error("Rotor repeated setting name");
+            for (int j = 0; j < i; j++) {
+                if (order[j] == order[i]) {
+                    throw error("Rotor repeated setting name");
+                }
             }
-            names.add(r.name());
         }
-        if (!_activeRotors.get(0).reflecting()) {
+        if (!active[0].reflecting()) {
             throw error("First Rotor not refelcting");
         }
-        for (int i = 1; i < _numPawls - 1; i++) {
-            if (_activeRotors.get(i).reflecting()) {
+        for (int i = 1; i < firstMoving; i++) {
+            if (active[i].reflecting()) {
                 throw error("Refelctor not at first");
             }
-            if (_activeRotors.get(i).rotates()) {
+            if (active[i].rotates()) {
                 throw error("Should not have rotating rotor here");
             }
         }
@@ -93,81 +171,599 @@ class Machine {
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 upper-case letters. The first letter refers to the
      *  leftmost rotor setting (not counting the reflector).  */
-    void setRotors(String setting) {
+    @Override
+    public void setRotors(String setting) {
+        if (setting.length() != _numRotors - 1) {
+            throw error("wrong number of rotor settings");
+        }
         for (int i = 1; i < _numRotors; i++) {
             char ch = setting.charAt(i - 1);
-            _activeRotors.get(i).set(ch);
+            _positions[i] = _alphabet.toInt(ch);
         }
+        _plain = UNKNOWN;
+        _initialPositions = _positions.clone();
     }
 
     /** Set the plugboard to PLUGBOARD. */
-    void setPlugboard(Permutation plugboard) {
+    @Override
+    public void setPlugboard(Permutation plugboard) {
+        if (plugboard != _plugboard) {
+            _compileTried = false;
+        }
         _plugboard = plugboard;
     }
 
+    /** Use generated code for conversions of char arrays of at least
+     *  THRESHOLD characters (initially the value of COMPILE_PROPERTY). */
+    void setCompileThreshold(int threshold) {
+        _compileThreshold = threshold;
+    }
+
+    /** Return the compiled form of my rotors and plugboard, generating
+     *  it if necessary, or null if they cannot be compiled.  Threads
+     *  converting at once (as ParallelEnigma's do) generate it only once,
+     *  and all see it fully built. */
+    private MachineCompiler.Compiled compiled() {
+        if (!_compileTried) {
+            synchronized (this) {
+                if (!_compileTried) {
+                    _compiled =
+                        MachineCompiler.compile(_activeRotors, _firstMoving,
+                                                _plugboard);
+                    _compileTried = true;
+                }
+            }
+        }
+        return _compiled;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
+    @Override
+    public int convert(int c) {
+        Rotor[] rotors = _activeRotors;
+        int[] posn = _positions;
+        _plain = step(rotors, posn, _plain);
+        return convertAt(c, rotors, posn);
+    }
 
-    /** Making convert method.
-     * @return int
-     * @param c integer to convert
-     * */
+    /** Return the conversion of C by ROTORS at settings POSN, without
+     *  advancing them. */
+    private int convertAt(int c, Rotor[] rotors, int[] posn) {
+        int last = rotors.length - 1;
+        int p = _plugboard.permute(c);
+        for (int i = last; i >= 0; i--) {
+            p = rotors[i].convertForward(p, posn[i]);
+        }
+        for (int i = 1; i <= last; i++) {
+            p = rotors[i].convertBackward(p, posn[i]);
+        }
+        return _plugboard.invert(p);
+    }
 
-    int convert(int c) {
-        char in = (char) c;
+    /** Advance ROTORS, whose current settings are POSN, by one keypress,
+     *  updating POSN.  PLAIN is plainSteps(ROTORS, _firstMoving, POSN),
+     *  or UNKNOWN.  Usually only the rightmost rotor moves, and this is a
+     *  decrement of PLAIN and an increment of its setting.
+     *  @return plainSteps(ROTORS, _firstMoving, POSN) for the new
+     *  settings. */
+    private long step(Rotor[] rotors, int[] posn, long plain) {
+        if (plain == UNKNOWN) {
+            plain = plainSteps(rotors, _firstMoving, posn);
+        }
+        if (plain > 0) {
+            int last = rotors.length - 1;
+            posn[last] = posn[last] + 1 == _size ? 0 : posn[last] + 1;
+            return plain - 1;
+        }
+        step(rotors, _firstMoving, posn);
+        return plainSteps(rotors, _firstMoving, posn);
+    }
 
-        char pc = _plugboard.permute((char) c);
-        int p = _alphabet.toInt(pc);
+    /** Advance ROTORS, whose current settings are POSN and whose first
+     *  pawl is in slot FIRST, by one keypress, updating POSN. */
+    private static void step(Rotor[] rotors, int first, int[] posn) {
+        int last = rotors.length - 1;
+        int size = rotors[last].size();
+        for (int i = first; i < last; i++) {
+            if (rotors[i + 1].atNotch(posn[i + 1])
+                    || (i > first && rotors[i].atNotch(posn[i]))) {
+                posn[i] = posn[i] + 1 == size ? 0 : posn[i] + 1;
+            }
+        }
+        posn[last] = posn[last] + 1 == size ? 0 : posn[last] + 1;
+    }
+
+    /** Advance my rotors as if N characters had been converted.  The
+     *  cost depends on the notch layout of the rotors in my slots, but
+     *  not on N. */
+    @Override
+    public void advance(long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative count");
+        }
+        advance(_activeRotors, _firstMoving, _positions, n);
+        _plain = UNKNOWN;
+    }
+
+    /** Advance the rotor settings POSN (as from positions()) by N
+     *  keypresses, leaving my own settings untouched. */
+    void advance(int[] posn, long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative count");
+        }
+        advance(_activeRotors, _firstMoving, posn, n);
+    }
+
+    /** Return the rotors in my slots, reflector first. */
+    Rotor[] rotors() {
+        return _activeRotors.clone();
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my available rotors. */
+    RotorLibrary library() {
+        return _library;
+    }
+
+    /** Return a copy of the settings of the rotors in my slots. */
+    int[] positions() {
+        return _positions.clone();
+    }
+
+    /** Set the rotors in my slots to the settings POSN, as returned by
+     *  positions(). */
+    void setPositions(int[] posn) {
+        System.arraycopy(posn, 0, _positions, 0, _positions.length);
+        _plain = UNKNOWN;
+    }
+
+    /** Return the settings of my rotors packed into a long, which
+     *  restore(long) accepts.  Each setting other than the reflector's
+     *  takes the bits needed for an index into my alphabet; the settings
+     *  must fit in a long (see snapshotLength()). */
+    @Override
+    public long snapshot() {
+        if (snapshotLength() != 1) {
+            throw error("rotor settings do not fit in a long");
+        }
+        return pack(_positions, 0);
+    }
+
+    /** Set my rotors to the settings in STATE, as returned by
+     *  snapshot(). */
+    @Override
+    public void restore(long state) {
+        if (snapshotLength() != 1) {
+            throw error("rotor settings do not fit in a long");
+        }
+        unpack(state, _positions, 0);
+        _plain = UNKNOWN;
+    }
+
+    /** Return the number of longs in a snapshot of my rotor settings. */
+    int snapshotLength() {
+        return (_numRotors - 2) / _settingsPerWord + 1;
+    }
+
+    /** Store the settings of my rotors, packed as for snapshot(), into
+     *  the first snapshotLength() elements of STATE. */
+    void snapshot(long[] state) {
+        for (int w = 0, n = snapshotLength(); w < n; w++) {
+            state[w] = pack(_positions, w);
+        }
+    }
+
+    /** Set my rotors to the settings in STATE, as stored by
+     *  snapshot(long[]). */
+    void restore(long[] state) {
+        for (int w = 0, n = snapshotLength(); w < n; w++) {
+            unpack(state[w], _positions, w);
+        }
+        _plain = UNKNOWN;
+    }
+
+    /** Return word W of the packed form of the rotor settings POSN. */
+    private long pack(int[] posn, int w) {
+        int from = 1 + w * _settingsPerWord;
+        int to = Math.min(from + _settingsPerWord, _numRotors);
+        long result = 0;
+        for (int i = to - 1; i >= from; i--) {
+            result = (result << _settingBits) | posn[i];
+        }
+        return result;
+    }
+
+    /** Set the rotor settings in POSN held by WORD, word W of their packed
+     *  form. */
+    private void unpack(long word, int[] posn, int w) {
+        int from = 1 + w * _settingsPerWord;
+        int to = Math.min(from + _settingsPerWord, _numRotors);
+        long mask = (1L << _settingBits) - 1;
+        for (int i = from; i < to; i++) {
+            int p = (int) (word & mask);
+            if (p >= _size) {
+                throw error("bad rotor settings snapshot");
+            }
+            posn[i] = p;
+            word >>>= _settingBits;
+        }
+    }
 
-        Boolean[] pulled = new Boolean[_numRotors];
+    /** Return the rotors in my slots packed into a long, each as the
+     *  bits needed for an index into my set of available rotors.
+     *  restoreRotorOrder accepts the result, as do my copies. */
+    long rotorOrder() {
+        if (_numRotors * _rotorBits > Long.SIZE) {
+            throw error("rotor order does not fit in a long");
+        }
+        long result = 0;
+        for (int i = _numRotors - 1; i >= 0; i--) {
+            result = (result << _rotorBits) | _order[i];
+        }
+        return result;
+    }
+
+    /** Put into my slots the rotors indicated by ORDER, as returned by
+     *  rotorOrder(), leaving the settings of my slots unchanged.  The
+     *  rotors must already have been inserted once.  If ORDER is not
+     *  valid, my slots are left in an unspecified state. */
+    void restoreRotorOrder(long order) {
+        if (_numRotors * _rotorBits > Long.SIZE) {
+            throw error("rotor order does not fit in a long");
+        }
+        Rotor[] active = _activeRotors;
+        long mask = (1L << _rotorBits) - 1;
         for (int i = 0; i < _numRotors; i++) {
-            pulled[i] = false;
+            int r = (int) (order & mask);
+            if (r >= _library.size()) {
+                throw error("bad rotor order");
+            }
+            active[i] = _library.get(r);
+            _order[i] = r;
+            order >>>= _rotorBits;
+        }
+        validateRotors(active, _order, _firstMoving);
+        _initialPositions = null;
+        _compileTried = false;
+        _plain = UNKNOWN;
+    }
+
+    /** Return true iff both rotorOrder() and snapshot() can record my
+     *  setup. */
+    boolean packsSetup() {
+        return _numRotors * _rotorBits <= Long.SIZE && snapshotLength() == 1;
+    }
+
+    /** Put into my slots the rotors indicated by ORDER, as returned by
+     *  rotorOrder(), at the settings STATE, as returned by snapshot(),
+     *  as if they had been inserted and set by insertRotors and
+     *  setRotors.  Neither is checked, so both must have been taken
+     *  from a machine with my rotors (such as a copy of me) just after
+     *  it was set up successfully. */
+    void restoreSetup(long order, long state) {
+        if (_activeRotors == null) {
+            _activeRotors = new Rotor[_numRotors];
+            _order = new int[_numRotors];
+            _positions = new int[_numRotors];
+        }
+        long mask = (1L << _rotorBits) - 1;
+        for (int i = 0; i < _numRotors; i++) {
+            int r = (int) (order & mask);
+            Rotor rotor = _library.get(r);
+            if (rotor != _activeRotors[i]) {
+                _activeRotors[i] = rotor;
+                _compileTried = false;
+            }
+            _order[i] = r;
+            order >>>= _rotorBits;
+        }
+        unpack(state, _positions, 0);
+        if (_initialPositions == null) {
+            _initialPositions = _positions.clone();
+        } else {
+            System.arraycopy(_positions, 0, _initialPositions, 0,
+                             _numRotors);
+        }
+        _plain = UNKNOWN;
+    }
+
+    /** Set my rotors to the settings they would have after converting N
+     *  characters following the last call to setRotors. */
+    void positionAt(long n) {
+        if (_initialPositions == null) {
+            throw error("rotors have not been set");
         }
-        for (int i = _numPawls - 1; i < _numRotors - 1; i++) {
-            if (_activeRotors.get(i + 1).atNotch()) {
-                pulled[i] = true;
-                pulled[i + 1] = true;
+        setPositions(_initialPositions);
+        advance(n);
+    }
+
+    /** Advance ROTORS, whose settings are POSN and whose first pawl is in
+     *  slot FIRST, by N keypresses.  Between
+     *  keypresses on which some rotor other than the rightmost is moved
+     *  (events), only the rightmost rotor moves, so we jump from event to
+     *  event.  The rotors right of the leftmost pawl do not depend on it,
+     *  so their settings at events eventually cycle; once a cycle is
+     *  found (by Brent's method), whole cycles are skipped by advancing
+     *  the leftmost pawl's rotor by the number of times it moves per
+     *  cycle. */
+    static void advance(Rotor[] rotors, int first, int[] posn, long n) {
+        int last = rotors.length - 1;
+        int size = rotors[last].size();
+        boolean canCycle =
+            (last - first) * Math.log(size) < Math.log(Long.MAX_VALUE);
+        long remaining = n;
+        long saved = -1, power = 1, lambda = 0;
+        long savedRemaining = 0, moves = 0, savedMoves = 0;
+        while (true) {
+            long plain = plainSteps(rotors, first, posn);
+            if (plain >= remaining) {
+                posn[last] = (int) ((posn[last] + remaining % size) % size);
+                return;
+            }
+            posn[last] = (int) ((posn[last] + plain % size) % size);
+            remaining -= plain;
+
+            if (canCycle) {
+                long state = encode(posn, first + 1, last, size);
+                if (state == saved) {
+                    long period = savedRemaining - remaining;
+                    long cycles = remaining / period;
+                    remaining -= cycles * period;
+                    posn[first] = (int) ((posn[first]
+                                          + cycles % size
+                                          * ((moves - savedMoves) % size))
+                                         % size);
+                    canCycle = false;
+                    continue;
+                }
+                if (power == lambda) {
+                    saved = state;
+                    savedRemaining = remaining;
+                    savedMoves = moves;
+                    power *= 2;
+                    lambda = 0;
+                }
+                lambda += 1;
+            }
+
+            int before = posn[first];
+            step(rotors, first, posn);
+            remaining -= 1;
+            if (posn[first] != before) {
+                moves += 1;
             }
         }
-        pulled[_numRotors - 1] = true;
-        for (int i = _numPawls - 1; i < _numRotors; i++) {
-            if (pulled[i]) {
-                _activeRotors.get(i).advance();
+    }
+
+    /** Return the number of keypresses, starting with ROTORS at settings
+     *  POSN and with the first pawl in slot FIRST, that would move only
+     *  the rightmost rotor (Long.MAX_VALUE if there is no limit). */
+    private static long plainSteps(Rotor[] rotors, int first, int[] posn) {
+        int last = rotors.length - 1;
+        if (first == last) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = first + 1; i < last; i++) {
+            if (rotors[i].atNotch(posn[i])) {
+                return 0;
             }
         }
+        int d = rotors[last].notchDistance(posn[last]);
+        return d == Integer.MAX_VALUE ? Long.MAX_VALUE : d;
+    }
 
-        for (int i = _numRotors - 1; i >= 0; i--) {
-            Rotor r = _activeRotors.get(i);
-            p = r.convertForward(p);
+    /** Return the settings POSN[FROM .. TO], each less than SIZE, packed
+     *  into a long. */
+    private static long encode(int[] posn, int from, int to, int size) {
+        long result = 0;
+        for (int i = from; i <= to; i++) {
+            result = result * size + posn[i];
         }
+        return result;
+    }
 
-        char endOfForward = (char) (p + 'A');
-        for (int i = 1; i < _numRotors; i++) {
-            Rotor r = _activeRotors.get(i);
-            p = r.convertBackward(p);
-            char test = (char) (p + 'A');
-            int x = 0;
+    /** Convert the LEN characters of SRC starting at SRCOFF, skipping
+     *  blanks, and store the results in DST starting at DSTOFF.  SRC and
+     *  DST may be the same array provided DSTOFF <= SRCOFF.
+     *  @return the number of characters stored into DST. */
+    int convert(char[] src, int srcOff, int len, char[] dst, int dstOff) {
+        return convert(src, srcOff, len, dst, dstOff, _positions);
+    }
+
+    /** As for convert(SRC, SRCOFF, LEN, DST, DSTOFF), but starting from
+     *  the rotor settings POSN (as from positions()) rather than mine.
+     *  POSN is updated and my own settings are untouched, so that several
+     *  threads may convert at once with distinct POSN.
+     *  @return the number of characters stored into DST. */
+    int convert(char[] src, int srcOff, int len, char[] dst, int dstOff,
+                int[] posn) {
+        Rotor[] rotors = _activeRotors;
+        Alphabet alpha = _alphabet;
+        MachineCompiler.Compiled compiled =
+            len >= _compileThreshold ? compiled() : null;
+        if (compiled != null) {
+            if (posn == _positions) {
+                _plain = UNKNOWN;
+            }
+            int n = dstOff;
+            for (int i = srcOff, end = srcOff + len; i < end; i++) {
+                char ch = src[i];
+                if (ch != ' ') {
+                    dst[n++] = alpha.toCharUnchecked(
+                        compiled.convert(alpha.toInt(ch), posn));
+                }
+            }
+            return n - dstOff;
+        }
+        boolean mine = posn == _positions;
+        long plain = UNKNOWN;
+        if (mine) {
+            plain = _plain;
+            _plain = UNKNOWN;
+        }
+        int n = dstOff;
+        for (int i = srcOff, end = srcOff + len; i < end; i++) {
+            char ch = src[i];
+            if (ch != ' ') {
+                int c = alpha.toInt(ch);
+                plain = step(rotors, posn, plain);
+                dst[n++] = alpha.toCharUnchecked(convertAt(c, rotors, posn));
+            }
         }
+        if (mine) {
+            _plain = plain;
+        }
+        return n - dstOff;
+    }
 
-        p = _plugboard.invert(p);
-        char nc = _alphabet.toChar(p);
+    /** Convert the characters of BUF from OFF to OFF + LEN in place,
+     *  skipping blanks.
+     *  @return the number of converted characters, which now start
+     *  at BUF[OFF]. */
+    @Override
+    public int convert(char[] buf, int off, int len) {
+        return convert(buf, off, len, buf, off);
+    }
 
-        return nc;
+    /** Convert the remaining characters of SRC, skipping blanks, and put
+     *  the results into DST, which must have room for them (otherwise
+     *  BufferOverflowException is thrown).
+     *  @return the number of characters put into DST. */
+    int convert(CharBuffer src, CharBuffer dst) {
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()
+            && src.remaining() <= dst.remaining()) {
+            int n = convert(src.array(), src.arrayOffset() + src.position(),
+                            src.remaining(), dst.array(),
+                            dst.arrayOffset() + dst.position());
+            src.position(src.limit());
+            dst.position(dst.position() + n);
+            return n;
+        }
+        Rotor[] rotors = _activeRotors;
+        Alphabet alpha = _alphabet;
+        int[] posn = _positions;
+        int n = 0;
+        while (src.hasRemaining()) {
+            char ch = src.get();
+            if (ch != ' ') {
+                int c = alpha.toInt(ch);
+                _plain = step(rotors, posn, _plain);
+                dst.put(alpha.toCharUnchecked(convertAt(c, rotors, posn)));
+                n += 1;
+            }
+        }
+        return n;
     }
 
-    /** Convert.
-     * @param msg Message to convert
-     * @return String
-     * */
-    String convert(String msg) {
-        return msg.chars().filter(i -> i != ' ').map(this::convert)
-                .collect(StringBuilder::new,
-                        StringBuilder::appendCodePoint,
-                        StringBuilder::append).toString();
+    /** Convert the LEN ASCII characters of SRC starting at SRCOFF,
+     *  skipping blanks, and store the results in DST starting at
+     *  DSTOFF.  My alphabet must be ASCII.  SRC and DST may be the same
+     *  array provided DSTOFF <= SRCOFF.
+     *  @return the number of bytes stored into DST. */
+    int convert(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+        if (!_ascii) {
+            throw error("alphabet is not ASCII");
+        }
+        Rotor[] rotors = _activeRotors;
+        Alphabet alpha = _alphabet;
+        int[] posn = _positions;
+        long plain = _plain;
+        _plain = UNKNOWN;
+        int n = dstOff;
+        for (int i = srcOff, end = srcOff + len; i < end; i++) {
+            char ch = (char) (src[i] & BYTE_MASK);
+            if (ch != ' ') {
+                int c = alpha.toInt(ch);
+                plain = step(rotors, posn, plain);
+                dst[n++] = (byte) alpha.toCharUnchecked(
+                    convertAt(c, rotors, posn));
+            }
+        }
+        _plain = plain;
+        return n - dstOff;
+    }
 
+    @Override
+    public String convert(String msg) {
+        char[] buf = msg.toCharArray();
+        return new String(buf, 0, convert(buf, 0, buf.length));
     }
 
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** System property giving the length of the shortest conversion of
+     *  a char array done by code generated for the machine's current
+     *  configuration (see MachineCompiler). */
+    static final String COMPILE_PROPERTY = "enigma.compileThreshold";
+
+    /** Value of COMPILE_PROPERTY. */
+    private static final int COMPILE_THRESHOLD =
+        Integer.getInteger(COMPILE_PROPERTY, 1 << 14);
+
+    /** Value of _plain when it must be recomputed. */
+    private static final long UNKNOWN = -1;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** True iff every character of my alphabet is ASCII. */
+    private final boolean _ascii;
+
+    /** Settings of the rotors in my slots, indexed like _activeRotors.
+     *  The Rotor objects themselves are never modified, so machines may
+     *  share them. */
+    private int[] _positions;
+
+    /** Indices in _library of the rotors in my slots. */
+    private int[] _order;
+
+    /** My available rotors, indexed as in rotorOrder().  Shared by my
+     *  copies. */
+    private final RotorLibrary _library;
+
+    /** Bits used for one rotor setting in a snapshot. */
+    private final int _settingBits;
+
+    /** Number of rotor settings held by each long of a snapshot. */
+    private final int _settingsPerWord;
+
+    /** Bits used for one rotor in rotorOrder(). */
+    private final int _rotorBits;
+
+    /** The number of keypresses from _positions that will move only the
+     *  rightmost rotor (as for plainSteps), or UNKNOWN.  Reset whenever
+     *  _positions is changed other than by converting. */
+    private long _plain = UNKNOWN;
+
+    /** Generated code for my current rotors and plugboard, if
+     *  _compileTried.  Set before _compileTried, so a thread that sees
+     *  _compileTried true also sees it. */
+    private volatile MachineCompiler.Compiled _compiled;
+
+    /** True iff _compiled is up to date. */
+    private volatile boolean _compileTried;
+
+    /** Length of the shortest conversion using _compiled. */
+    private int _compileThreshold = COMPILE_THRESHOLD;
+
+    /** Rotor settings established by the last setRotors. */
+    private int[] _initialPositions;
+
     /** Alphabet. */
     private final Alphabet _alphabet;
 }
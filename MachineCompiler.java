@@ -0,0 +1,486 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Generates, for a particular choice of rotors and plugboard, a hidden
+ *  class whose single method advances the rotors and converts one
+ *  character.  The number of rotors and the pawl layout are built into
+ *  the straight-line code of the method, and the wiring and notch tables
+ *  are final fields of the class, so the JIT sees no loops over rotors
+ *  and no calls on Rotor or Permutation.  The generated method has no
+ *  branches: a rotor advances by adding its neighbors' notch bits to its
+ *  setting and wrapping the sum through a table.
+ *  @author esun
+ */
+class MachineCompiler {
+
+    /** A machine configuration compiled into a class. */
+    interface Compiled {
+        /** Advance the rotors, whose settings are POSN (indexed as in
+         *  Machine.positions()), by one keypress, updating POSN, and
+         *  return the conversion of C. */
+        int convert(int c, int[] posn);
+    }
+
+    /** Return a compiled form of a machine whose slots hold ROTORS
+     *  (reflector first), with pawls on the rotors from FIRSTMOVING
+     *  onward, and whose plugboard is PLUGBOARD, or null if the machine
+     *  is too large to compile. */
+    static Compiled compile(Rotor[] rotors, int firstMoving,
+                            Permutation plugboard) {
+        int size = plugboard.size();
+        int numFields = slotField(rotors.length, 0);
+        if (CONVERT_ARGS + numFields + 1 > MAX_LOCALS
+            || size > Short.MAX_VALUE) {
+            return null;
+        }
+        int[][] tables = new int[numFields][];
+        int[] wrap = new int[2 * size];
+        int[] plugForward = new int[size], plugInverse = new int[size];
+        for (int p = 0; p < size; p += 1) {
+            wrap[p] = wrap[p + size] = p;
+            plugForward[p] = plugboard.permute(p);
+            plugInverse[p] = plugboard.invert(p);
+        }
+        tables[WRAP] = wrap;
+        tables[PLUG_FORWARD] = plugForward;
+        tables[PLUG_INVERSE] = plugInverse;
+        for (int i = 0; i < rotors.length; i += 1) {
+            int[] notch = new int[size];
+            for (int p = 0; p < size; p += 1) {
+                notch[p] = rotors[i].atNotch(p) ? 1 : 0;
+            }
+            tables[slotField(i, FORWARD)] = rotors[i].forwardTable();
+            tables[slotField(i, BACKWARD)] = rotors[i].backwardTable();
+            tables[slotField(i, NOTCH)] = notch;
+        }
+        byte[] bytes =
+            new MachineCompiler(rotors.length, firstMoving, size,
+                                tables.length).classBytes();
+        try {
+            MethodHandles.Lookup lookup =
+                MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Compiled) lookup.findConstructor(
+                lookup.lookupClass(),
+                MethodType.methodType(void.class, int[][].class))
+                .invoke(tables);
+        } catch (Throwable excp) {
+            throw error("could not compile machine: %s", excp);
+        }
+    }
+
+    /** A generator for a machine with NUMROTORS slots, pawls from slot
+     *  FIRSTMOVING onward, an alphabet of SIZE characters, and NUMFIELDS
+     *  tables. */
+    private MachineCompiler(int numRotors, int firstMoving, int size,
+                            int numFields) {
+        _numRotors = numRotors;
+        _firstMoving = firstMoving;
+        _size = size;
+        _numFields = numFields;
+    }
+
+    /** Return the contents of the class file. */
+    private byte[] classBytes() {
+        try {
+            int thisClass = classRef(CLASS_NAME);
+            int superClass = classRef("java/lang/Object");
+            int iface = classRef(COMPILED_NAME);
+            int[] fields = new int[_numFields];
+            int[] fieldNames = new int[_numFields];
+            for (int k = 0; k < _numFields; k += 1) {
+                fields[k] = fieldRef(CLASS_NAME, fieldName(k), TABLE_DESC);
+                fieldNames[k] = utf8(fieldName(k));
+            }
+            int tableDesc = utf8(TABLE_DESC);
+            int initName = utf8("<init>");
+            int initDesc = utf8("([[I)V");
+            int convertName = utf8("convert");
+            int convertDesc = utf8("(I[I)I");
+            int codeName = utf8("Code");
+            byte[] init = initCode(fields);
+            byte[] convert = convertCode(fields);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(_poolCount);
+            out.write(_pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+            out.writeShort(_numFields);
+            for (int k = 0; k < _numFields; k += 1) {
+                out.writeShort(ACC_PRIVATE | ACC_FINAL);
+                out.writeShort(fieldNames[k]);
+                out.writeShort(tableDesc);
+                out.writeShort(0);
+            }
+            out.writeShort(2);
+            writeMethod(out, initName, initDesc, codeName, init,
+                        INIT_STACK, 2);
+            writeMethod(out, convertName, convertDesc, codeName, convert,
+                        CONVERT_STACK, CONVERT_ARGS + _numFields + 1);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("could not compile machine");
+        }
+    }
+
+    /** Write to OUT a public method whose name and descriptor are the
+     *  constants NAME and DESC, with the attribute named by the constant
+     *  CODENAME holding CODE, MAXSTACK, and MAXLOCALS. */
+    private void writeMethod(DataOutputStream out, int name, int desc,
+                             int codeName, byte[] code, int maxStack,
+                             int maxLocals) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(CODE_HEADER_SIZE + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /** Return the code of the constructor, which calls Object() and then
+     *  stores each element of its int[][] argument in the corresponding
+     *  field, whose constants are FIELDS. */
+    private byte[] initCode(int[] fields) {
+        Code code = new Code();
+        code.op(ALOAD_0);
+        code.op(INVOKESPECIAL);
+        code.u2(methodRef("java/lang/Object", "<init>", "()V"));
+        for (int k = 0; k < fields.length; k += 1) {
+            code.op(ALOAD_0);
+            code.op(ALOAD_1);
+            code.pushInt(k);
+            code.op(AALOAD);
+            code.op(PUTFIELD);
+            code.u2(fields[k]);
+        }
+        code.op(RETURN);
+        return code.bytes();
+    }
+
+    /** Return the code of convert(int c, int[] posn), where FIELDS are
+     *  the constants for the tables.  Its locals are this, c, posn, the
+     *  tables, and the character being converted. */
+    private byte[] convertCode(int[] fields) {
+        Code code = new Code();
+        for (int k = 0; k < fields.length; k += 1) {
+            code.op(ALOAD_0);
+            code.op(GETFIELD);
+            code.u2(fields[k]);
+            code.op(ASTORE);
+            code.u1(CONVERT_ARGS + k);
+        }
+        int last = _numRotors - 1;
+        for (int i = _firstMoving; i < last; i += 1) {
+            code.op(ALOAD_2);
+            code.pushInt(i);
+            code.loadTable(CONVERT_ARGS + WRAP);
+            loadSetting(code, i);
+            loadNotch(code, i + 1);
+            if (i > _firstMoving) {
+                loadNotch(code, i);
+                code.op(IOR);
+            }
+            code.op(IADD);
+            code.op(IALOAD);
+            code.op(IASTORE);
+        }
+        code.op(ALOAD_2);
+        code.pushInt(last);
+        code.loadTable(CONVERT_ARGS + WRAP);
+        loadSetting(code, last);
+        code.pushInt(1);
+        code.op(IADD);
+        code.op(IALOAD);
+        code.op(IASTORE);
+
+        int p = CONVERT_ARGS + _numFields;
+        code.loadTable(CONVERT_ARGS + PLUG_FORWARD);
+        code.op(ILOAD_1);
+        code.op(IALOAD);
+        code.op(ISTORE);
+        code.u1(p);
+        for (int i = last; i >= 0; i -= 1) {
+            convertThrough(code, i, FORWARD, p);
+        }
+        for (int i = 1; i <= last; i += 1) {
+            convertThrough(code, i, BACKWARD, p);
+        }
+        code.loadTable(CONVERT_ARGS + PLUG_INVERSE);
+        code.op(ILOAD);
+        code.u1(p);
+        code.op(IALOAD);
+        code.op(IRETURN);
+        return code.bytes();
+    }
+
+    /** Add to CODE instructions that push posn[I]. */
+    private void loadSetting(Code code, int i) {
+        code.op(ALOAD_2);
+        code.pushInt(i);
+        code.op(IALOAD);
+    }
+
+    /** Add to CODE instructions that push 1 if slot I is at a notch and
+     *  0 otherwise. */
+    private void loadNotch(Code code, int i) {
+        code.loadTable(CONVERT_ARGS + slotField(i, NOTCH));
+        loadSetting(code, i);
+        code.op(IALOAD);
+    }
+
+    /** Add to CODE instructions that replace local P by its conversion
+     *  through the DIRECTION (FORWARD or BACKWARD) table of slot I. */
+    private void convertThrough(Code code, int i, int direction, int p) {
+        code.loadTable(CONVERT_ARGS + slotField(i, direction));
+        loadSetting(code, i);
+        code.pushInt(_size);
+        code.op(IMUL);
+        code.op(ILOAD);
+        code.u1(p);
+        code.op(IADD);
+        code.op(IALOAD);
+        code.op(ISTORE);
+        code.u1(p);
+    }
+
+    /** Return the index of the table of the given KIND (FORWARD,
+     *  BACKWARD, or NOTCH) for slot I. */
+    private static int slotField(int i, int kind) {
+        return FIRST_SLOT_FIELD + SLOT_FIELDS * i + kind;
+    }
+
+    /** Return the name of the field holding table K. */
+    private static String fieldName(int k) {
+        return "table" + k;
+    }
+
+    /** Return the constant for the UTF-8 string S, adding it if
+     *  needed. */
+    private int utf8(String s) throws IOException {
+        return constant("U" + s, () -> {
+            _poolOut.writeByte(CONSTANT_UTF8);
+            _poolOut.writeUTF(s);
+        });
+    }
+
+    /** Return the constant for the class named NAME. */
+    private int classRef(String name) throws IOException {
+        int nameIndex = utf8(name);
+        return constant("C" + name, () -> {
+            _poolOut.writeByte(CONSTANT_CLASS);
+            _poolOut.writeShort(nameIndex);
+        });
+    }
+
+    /** Return the constant for the name NAME and descriptor DESC. */
+    private int nameAndType(String name, String desc) throws IOException {
+        int nameIndex = utf8(name), descIndex = utf8(desc);
+        return constant("N" + name + " " + desc, () -> {
+            _poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            _poolOut.writeShort(nameIndex);
+            _poolOut.writeShort(descIndex);
+        });
+    }
+
+    /** Return the constant for the field NAME of type DESC in class
+     *  OWNER. */
+    private int fieldRef(String owner, String name, String desc)
+        throws IOException {
+        int ownerIndex = classRef(owner), nt = nameAndType(name, desc);
+        return constant("F" + owner + " " + name, () -> {
+            _poolOut.writeByte(CONSTANT_FIELDREF);
+            _poolOut.writeShort(ownerIndex);
+            _poolOut.writeShort(nt);
+        });
+    }
+
+    /** Return the constant for the method NAME with descriptor DESC in
+     *  class OWNER.  (Used while generating code, so that it may not throw
+     *  IOException.) */
+    private int methodRef(String owner, String name, String desc) {
+        try {
+            int ownerIndex = classRef(owner), nt = nameAndType(name, desc);
+            return constant("M" + owner + " " + name + desc, () -> {
+                _poolOut.writeByte(CONSTANT_METHODREF);
+                _poolOut.writeShort(ownerIndex);
+                _poolOut.writeShort(nt);
+            });
+        } catch (IOException excp) {
+            throw error("could not compile machine");
+        }
+    }
+
+    /** Writes one constant pool entry. */
+    private interface Entry {
+        /** Write the entry to _poolOut. */
+        void write() throws IOException;
+    }
+
+    /** Return the index of the constant identified by KEY, first adding
+     *  it to the pool with ENTRY if it is not there already. */
+    private int constant(String key, Entry entry) throws IOException {
+        Integer index = _constants.get(key);
+        if (index == null) {
+            entry.write();
+            index = _poolCount;
+            _poolCount += 1;
+            _constants.put(key, index);
+        }
+        return index;
+    }
+
+    /** Bytecode being assembled. */
+    private static class Code {
+
+        /** Append the opcode OP. */
+        void op(int op) {
+            _out.write(op);
+        }
+
+        /** Append the byte B. */
+        void u1(int b) {
+            _out.write(b);
+        }
+
+        /** Append the two-byte value V. */
+        void u2(int v) {
+            _out.write(v >>> BYTE_BITS);
+            _out.write(v);
+        }
+
+        /** Append an instruction pushing the int V (0 <= V < 32768). */
+        void pushInt(int v) {
+            if (v <= ICONST_MAX) {
+                op(ICONST_0 + v);
+            } else if (v <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(v);
+            } else {
+                op(SIPUSH);
+                u2(v);
+            }
+        }
+
+        /** Append an instruction pushing the array in local LOCAL. */
+        void loadTable(int local) {
+            op(ALOAD);
+            u1(local);
+        }
+
+        /** Return the code assembled so far. */
+        byte[] bytes() {
+            return _out.toByteArray();
+        }
+
+        /** The code. */
+        private final ByteArrayOutputStream _out =
+            new ByteArrayOutputStream();
+    }
+
+    /** Binary name of the generated class (made unique when it is
+     *  defined). */
+    private static final String CLASS_NAME = "enigma/CompiledMachine";
+
+    /** Binary name of Compiled. */
+    private static final String COMPILED_NAME =
+        "enigma/MachineCompiler$Compiled";
+
+    /** Descriptor of the tables' type. */
+    private static final String TABLE_DESC = "[I";
+
+    /** Indices of the shared tables. */
+    private static final int WRAP = 0, PLUG_FORWARD = 1, PLUG_INVERSE = 2;
+
+    /** Index of the first per-slot table. */
+    private static final int FIRST_SLOT_FIELD = 3;
+
+    /** Offsets of the per-slot tables, and their number. */
+    private static final int FORWARD = 0, BACKWARD = 1, NOTCH = 2,
+        SLOT_FIELDS = 3;
+
+    /** Number of local variables holding convert's arguments and this. */
+    private static final int CONVERT_ARGS = 3;
+
+    /** Local variables addressable without wide instructions. */
+    private static final int MAX_LOCALS = 256;
+
+    /** Operand stack sizes of the methods. */
+    private static final int INIT_STACK = 3, CONVERT_STACK = 8;
+
+    /** Class file magic number.  Version 49 class files need no stack
+     *  map frames (and the generated code has no branches anyway). */
+    private static final int MAGIC = 0xCAFEBABE, CLASS_VERSION = 49;
+
+    /** Access flags. */
+    private static final int ACC_PUBLIC = 0x1, ACC_PRIVATE = 0x2,
+        ACC_FINAL = 0x10, ACC_SUPER = 0x20;
+
+    /** Constant pool tags. */
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_CLASS = 7,
+        CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10,
+        CONSTANT_NAME_AND_TYPE = 12;
+
+    /** Size of the fixed part of a Code attribute after its length. */
+    private static final int CODE_HEADER_SIZE = 12;
+
+    /** Opcodes. */
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+        ILOAD = 0x15, ALOAD = 0x19, ILOAD_1 = 0x1b, ALOAD_0 = 0x2a,
+        ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, IALOAD = 0x2e, AALOAD = 0x32,
+        ISTORE = 0x36, ASTORE = 0x3a, IASTORE = 0x4f, IADD = 0x60,
+        IMUL = 0x68, IOR = 0x80, IRETURN = 0xac, RETURN = 0xb1,
+        GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKESPECIAL = 0xb7;
+
+    /** Largest constant with its own iconst instruction. */
+    private static final int ICONST_MAX = 5;
+
+    /** Bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+    /** Number of slots of the machine. */
+    private final int _numRotors;
+
+    /** First slot with a pawl. */
+    private final int _firstMoving;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of tables. */
+    private final int _numFields;
+
+    /** Contents of the constant pool. */
+    private final ByteArrayOutputStream _pool = new ByteArrayOutputStream();
+
+    /** Writer appending to _pool. */
+    private final DataOutputStream _poolOut = new DataOutputStream(_pool);
+
+    /** Indices of the constants in _pool, by kind and value. */
+    private final HashMap<String, Integer> _constants = new HashMap<>();
+
+    /** One more than the index of the last constant. */
+    private int _poolCount = 1;
+
+}
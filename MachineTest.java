@@ -0,0 +1,274 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author esun
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(500);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Notches of the naval rotors. */
+    static final HashMap<String, String> NOTCHES = new HashMap<>();
+    static {
+        NOTCHES.put("I", "Q");
+        NOTCHES.put("II", "E");
+        NOTCHES.put("III", "V");
+        NOTCHES.put("IV", "J");
+        NOTCHES.put("V", "Z");
+        NOTCHES.put("VI", "ZM");
+        NOTCHES.put("VII", "ZM");
+        NOTCHES.put("VIII", "ZM");
+    }
+
+    /** Return all the naval rotors over UPPER. */
+    static ArrayList<Rotor> navalRotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            if (NOTCHES.containsKey(name)) {
+                result.add(new MovingRotor(name, perm, NOTCHES.get(name)));
+            } else if (name.equals("B") || name.equals("C")) {
+                result.add(new Reflector(name, perm));
+            } else {
+                result.add(new FixedRotor(name, perm));
+            }
+        }
+        return result;
+    }
+
+    /** Return a 5-rotor, 3-pawl machine holding ROTORS at SETTING with
+     *  plugboard CYCLES. */
+    static Machine naval(String[] rotors, String setting, String cycles) {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(rotors);
+        mach.setRotors(setting);
+        mach.setPlugboard(new Permutation(cycles, UPPER));
+        return mach;
+    }
+
+    /** Rotors used in the example from the project specification. */
+    static final String[] SPEC_ROTORS = { "B", "Beta", "III", "IV", "I" };
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSpecExample() {
+        Machine mach = naval(SPEC_ROTORS, "AXLE",
+                             "(HQ) (EX) (IP) (TR) (BY)");
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     mach.convert("FROM HIS SHOULDER HIAWATHA"));
+    }
+
+    @Test
+    public void checkDoubleStep() {
+        Machine mach = naval(new String[] { "B", "Beta", "I", "II", "III" },
+                             "AADU", "");
+        mach.convert(0);
+        mach.convert(0);
+        mach.convert(0);
+        Machine fresh = naval(new String[] { "B", "Beta", "I", "II", "III" },
+                              "ABFX", "");
+        assertEquals(fresh.convert("QWERTY"), mach.convert("QWERTY"));
+    }
+
+    @Test
+    public void checkBulkConvert() {
+        String msg = "FROM HIS SHOULDER HIAWATHA";
+        String expected = "QVPQSOKOILPUBKJZPISFXDW";
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+
+        char[] chars = ("  " + msg).toCharArray();
+        Machine mach = naval(SPEC_ROTORS, "AXLE", plugs);
+        int n = mach.convert(chars, 2, msg.length());
+        assertEquals(expected, new String(chars, 2, n));
+
+        mach = naval(SPEC_ROTORS, "AXLE", plugs);
+        CharBuffer dst = CharBuffer.allocate(msg.length());
+        mach.convert(CharBuffer.wrap(msg), dst);
+        dst.flip();
+        assertEquals(expected, dst.toString());
+
+        mach = naval(SPEC_ROTORS, "AXLE", plugs);
+        dst = CharBuffer.allocate(msg.length());
+        dst.limit(expected.length() - 1);
+        try {
+            mach.convert(CharBuffer.wrap(msg.toCharArray()), dst);
+            fail("converted past the limit of DST");
+        } catch (BufferOverflowException excp) {
+            assertEquals(0, dst.array()[expected.length() - 1]);
+        }
+
+        mach = naval(SPEC_ROTORS, "AXLE", plugs);
+        byte[] bytes = msg.getBytes(StandardCharsets.US_ASCII);
+        n = mach.convert(bytes, 0, bytes.length, bytes, 0);
+        assertEquals(expected,
+                     new String(bytes, 0, n, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void checkAdvanceMatchesStepping() {
+        String[] moving =
+            { "I", "II", "III", "IV", "V", "VI", "VII", "VIII" };
+        Random random = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            String[] rotors = { "B", "Gamma", null, null, null };
+            for (int i = 2; i < 5; i += 1) {
+                do {
+                    rotors[i] = moving[random.nextInt(moving.length)];
+                } while (Arrays.asList(rotors).subList(2, i)
+                         .contains(rotors[i]));
+            }
+            String setting = "";
+            for (int i = 0; i < 4; i += 1) {
+                setting += (char) ('A' + random.nextInt(26));
+            }
+            int n = trial < 100 ? random.nextInt(100) : random.nextInt(50000);
+            Machine stepped = naval(rotors, setting, "(AQ) (ZM)");
+            for (int i = 0; i < n; i += 1) {
+                stepped.convert(0);
+            }
+            Machine jumped = naval(rotors, setting, "(AQ) (ZM)");
+            jumped.advance(n);
+            String probe = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+            assertEquals(msg(Arrays.toString(rotors) + setting,
+                             "advance(%d)", n),
+                         stepped.convert(probe), jumped.convert(probe));
+            jumped.positionAt(n);
+            assertEquals(msg(Arrays.toString(rotors) + setting,
+                             "positionAt(%d)", n),
+                         naval(rotors, setting, "(AQ) (ZM)").convert(
+                             "X".repeat(n) + probe).substring(n),
+                         jumped.convert(probe));
+        }
+    }
+
+    @Test
+    public void checkLongAdvance() {
+        Machine jumped = naval(SPEC_ROTORS, "AXLE", "");
+        jumped.advance(1_000_000_000_000L);
+        Machine stepped = naval(SPEC_ROTORS, "AXLE", "");
+        for (long i = 1_000_000_000_000L % (26 * 25 * 26); i > 0; i -= 1) {
+            stepped.convert(0);
+        }
+        assertEquals(stepped.convert("ENIGMA"), jumped.convert("ENIGMA"));
+    }
+
+    @Test
+    public void checkMaxAdvance() {
+        String[] rotors = { "B", "Beta", "Gamma", "I" };
+        Machine jumped = new Machine(UPPER, 4, 1, navalRotors());
+        jumped.insertRotors(rotors);
+        jumped.setRotors("AAX");
+        jumped.setPlugboard(new Permutation("", UPPER));
+        jumped.advance(Long.MAX_VALUE);
+        Machine expected = new Machine(UPPER, 4, 1, navalRotors());
+        expected.insertRotors(rotors);
+        expected.setRotors("AA" + UPPER.toChar(
+            (int) ((UPPER.toInt('X') + Long.MAX_VALUE % 26) % 26)));
+        expected.setPlugboard(new Permutation("", UPPER));
+        assertEquals(expected.convert("ENIGMA"), jumped.convert("ENIGMA"));
+
+        jumped = naval(SPEC_ROTORS, "AXLE", "");
+        jumped.advance(Long.MAX_VALUE);
+        jumped.convert("ENIGMA");
+    }
+
+    @Test
+    public void checkSharedRotors() {
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Collection<Rotor> rotors = navalRotors();
+        Machine first = new Machine(UPPER, 5, 3, rotors);
+        Machine second = new Machine(UPPER, 5, 3, rotors);
+        for (Machine mach : new Machine[] { first, second }) {
+            mach.insertRotors(SPEC_ROTORS);
+            mach.setRotors("AXLE");
+            mach.setPlugboard(new Permutation(plugs, UPPER));
+        }
+        assertEquals("QVPQS", first.convert("FROMH"));
+        Machine copy = first.copy();
+        assertEquals("OKOIL", first.convert("ISSHO"));
+        assertEquals("OKOIL", copy.convert("ISSHO"));
+        assertEquals("QVPQS", second.convert("FROMH"));
+    }
+
+    @Test
+    public void checkSnapshot() {
+        Machine mach = naval(SPEC_ROTORS, "AXLE", "(HQ) (EX) (IP) (TR)");
+        mach.convert("FROMHISSHOULDER");
+        long state = mach.snapshot();
+        String next = mach.convert("HIAWATHA");
+        mach.restore(state);
+        assertEquals(next, mach.convert("HIAWATHA"));
+        long[] words = new long[mach.snapshotLength()];
+        mach.restore(state);
+        mach.snapshot(words);
+        assertEquals(state, words[0]);
+
+        long order = mach.rotorOrder();
+        Machine other = naval(new String[] { "C", "Gamma", "I", "II", "III" },
+                              "AXLE", "(HQ) (EX) (IP) (TR)");
+        other.restoreRotorOrder(order);
+        other.restore(state);
+        assertEquals(next, other.convert("HIAWATHA"));
+    }
+
+    @Test
+    public void checkCompiledConvert() {
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine compiled = naval(SPEC_ROTORS, "QEVZ", plugs);
+        Machine interpreted = naval(SPEC_ROTORS, "QEVZ", plugs);
+        char[] msg = new char[1 << 16];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = (char) ('A' + (i * 7 + i / 26) % 26);
+        }
+        char[] expected = new char[msg.length];
+        for (int i = 0; i < msg.length; i += 1) {
+            expected[i] = (char) ('A' + interpreted.convert(msg[i] - 'A'));
+        }
+        assertEquals(msg.length, compiled.convert(msg, 0, msg.length));
+        assertArrayEquals(expected, msg);
+        assertArrayEquals(interpreted.positions(), compiled.positions());
+    }
+
+    @Test
+    public void checkConvertAllocationFree() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        Machine mach = naval(SPEC_ROTORS, "AXLE", "(HQ) (EX) (IP) (TR)");
+        int p = 0;
+        for (int i = 0; i < 200000; i += 1) {
+            p = mach.convert((p + i) % 26);
+        }
+        bean.getThreadAllocatedBytes(id);
+        long before = bean.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 200000; i += 1) {
+            p = mach.convert((p + i) % 26);
+        }
+        long after = bean.getThreadAllocatedBytes(id);
+        assertEquals("bytes allocated by convert", 0, after - before);
+    }
+
+}
@@ -2,12 +2,19 @@ package enigma;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
-import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.EnigmaException.*;
 
@@ -42,18 +49,20 @@ public final class Main {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configPath = Paths.get(args[0]);
+        if (!ConfigImage.isImage(_configPath)) {
+            _config = getInput(args[0]);
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
-        } else {
-            _input = new Scanner(System.in);
+            _inputFile = getChannel(args[1]);
+            _mapInput = Files.isRegularFile(Paths.get(args[1]));
         }
 
         if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _output = new MessageWriter(Channels.newChannel(System.out));
         }
     }
 
@@ -66,65 +75,263 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a channel reading from the file named NAME. */
+    private FileChannel getChannel(String name) {
         try {
-            return new PrintStream(new File(name));
+            return FileChannel.open(Paths.get(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return a MessageWriter writing to the file named NAME. */
+    private MessageWriter getOutput(String name) {
+        try {
+            FileChannel out =
+                FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING);
+            return new MessageWriter(out);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a tokenizer for the messages in _inputFile, or the standard
+     *  input if there is none.  A regular input file is mapped into
+     *  memory and read as bytes when my alphabet is ASCII, since then any
+     *  other character in a message is an error anyway. */
+    private InputTokenizer getMessages() {
+        if (_inputFile == null) {
+            return new InputTokenizer(new InputStreamReader(System.in));
+        }
+        boolean ascii = true;
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            ascii &= _alphabet.toChar(i) < ASCII_LIMIT;
+        }
+        if (_mapInput && ascii) {
+            return new InputTokenizer(_inputFile);
+        }
+        return new InputTokenizer(
+            Channels.newReader(_inputFile, Charset.defaultCharset()));
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
-
-        Machine m = readConfig();
-        Boolean init = false;
-
-        Boolean e = false;
-        while (_input.hasNext() || (_input.findInLine("(?=\\S)") == null)) {
-            if (_input.hasNext("[*]")) {
-                e = _input.findInLine("(?=\\S)") == null;
-                if (e) {
-                    printMessageLine(_input.nextLine());
+    void process() {
+        try {
+            EnigmaEngine m = readConfig();
+            String compile = System.getProperty(COMPILE_PROPERTY);
+            if (compile != null) {
+                if (_inputFile != null) {
+                    throw error("compile mode takes only a configuration"
+                                + " file");
                 }
-                _input.next();
-                setUp(m, _input.nextLine().toUpperCase());
-                init = true;
+                new ConfigImage(_alphabet, _upperCase, _numTotalRotors,
+                                _numMovingRotors, _library)
+                    .write(Paths.get(compile));
+                return;
             }
-            if (!init) {
-                throw error("input file truncated");
+            String crib = System.getProperty(CRIB_PROPERTY);
+            if (crib != null) {
+                runBombe(crib);
+                return;
             }
-            if (!_input.hasNextLine()) {
-                break;
+            Integer top = Integer.getInteger(COINCIDENCE_PROPERTY);
+            if (top != null) {
+                runCoincidenceSearch(top);
+                return;
             }
-            if (_input.hasNext("[*]")) {
-                continue;
+            String serve = System.getProperty(SERVE_PROPERTY);
+            if (serve != null) {
+                if (_inputFile != null) {
+                    throw error("server mode takes only a configuration file");
+                }
+                new EnigmaServer(serve, m::copy,
+                                 (e, in, out) -> convertMessages(e, in, out,
+                                                                 true))
+                    .run();
+                return;
+            }
+            _input = getMessages();
+            int threads = Integer.getInteger(THREADS_PROPERTY, 1);
+            if (threads > 1) {
+                new MessagePipeline(threads, m::copy, this::setUp,
+                                    !_upperCase)
+                    .run(_input, _output);
+            } else {
+                convertMessages(m, _input, _output, _inputFile == null);
+            }
+        } finally {
+            _output.flush();
+            if (Boolean.getBoolean(STATS_PROPERTY)) {
+                System.err.printf("settings cache: %d hits, %d misses%n",
+                                  _settingsCache.hits(),
+                                  _settingsCache.misses());
+                if (_library != null) {
+                    System.err.printf("rotors: %d built, %d available%n",
+                                      _library.builds(), _library.size());
+                }
             }
-            String line = _input.nextLine().toUpperCase();
-            String outcome = m.convert(line);
+        }
+    }
+
+    /** Print on _output, as settings lines, the stops of a bombe looking
+     *  for CRIB in the messages (taken together, without blanks) in
+     *  _input, at the offset given by CRIB_OFFSET_PROPERTY.  Settings
+     *  lines in the input are ignored. */
+    private void runBombe(String crib) {
+        ForkJoinPool pool = searchPool();
+        try {
+            Bombe bombe =
+                new Bombe(_alphabet, _numTotalRotors, _numMovingRotors,
+                          _library, readCiphertext(),
+                          toInts(crib.toUpperCase()),
+                          Integer.getInteger(CRIB_OFFSET_PROPERTY, 0));
+            for (Bombe.Stop stop : bombe.run(pool)) {
+                _output.writeText(stop.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Print on _output, as settings lines (best first), the TOP keys
+     *  found by a CoincidenceSearch on the messages in _input (taken
+     *  together, as for runBombe), and on the standard error, the rate
+     *  of the search. */
+    private void runCoincidenceSearch(int top) {
+        ForkJoinPool pool = searchPool();
+        try {
+            Machine machine = new Machine(_alphabet, _numTotalRotors,
+                                          _numMovingRotors, _library);
+            CoincidenceSearch.Result result =
+                new CoincidenceSearch(machine, readCiphertext(), top)
+                .run(pool);
+            for (CoincidenceSearch.Candidate c : result.best()) {
+                _output.writeText(c.toString());
+            }
+            System.err.printf("%d candidates in %.3f s (%.0f/s)%n",
+                              result.candidates(), result.seconds(),
+                              result.candidatesPerSecond());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return a pool for a key search, with the number of threads given
+     *  by THREADS_PROPERTY (by default, the number of processors). */
+    private ForkJoinPool searchPool() {
+        return new ForkJoinPool(
+            Integer.getInteger(THREADS_PROPERTY,
+                               Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Return the message lines of _input, without blanks, as indices
+     *  in _alphabet.  Settings lines are ignored. */
+    private int[] readCiphertext() {
+        _input = getMessages();
+        StringBuilder cipher = new StringBuilder();
+        while (_input.next()) {
+            if (_input.kind() == InputTokenizer.Kind.MESSAGE) {
+                char[] line = _input.buffer();
+                for (int i = _input.start(); i < _input.end(); i += 1) {
+                    if (!Character.isWhitespace(line[i])) {
+                        cipher.append(line[i]);
+                    }
+                }
+            }
+        }
+        return toInts(cipher.toString());
+    }
+
+    /** Return the indices in _alphabet of the characters of TEXT. */
+    private int[] toInts(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _alphabet.toInt(text.charAt(i));
+        }
+        return result;
+    }
 
-            if (!_upperCase) {
-                outcome = outcome.toLowerCase();
+    /** Apply M to the messages in INPUT, sending the results to OUTPUT.
+     *  If INTERACTIVE, OUTPUT is flushed after each line for which INPUT
+     *  has no complete next line ready, so that each batch of messages
+     *  is answered as it arrives.  (Blank lines at the end of a batch are
+     *  answered with the next batch, since their output depends on
+     *  whether a settings line follows.) */
+    private void convertMessages(EnigmaEngine m, InputTokenizer input,
+                                 MessageWriter output, boolean interactive) {
+        boolean init = false;
+        ArrayList<String> blanks = new ArrayList<>();
+
+        while (input.next()) {
+            switch (input.kind()) {
+            case BLANK:
+                blanks.add(input.text());
+                break;
+            case SETTINGS:
+                if (!blanks.isEmpty()) {
+                    output.writeLine(blanks.get(0));
+                    blanks.clear();
+                }
+                setUp(m, input.text());
+                init = true;
+                break;
+            default:
+                if (!init) {
+                    throw error("input file truncated");
+                }
+                printBlanks(m, blanks, output);
+                char[] line = input.buffer();
+                int n = m.convert(line, 0, input.end());
+                output.writeLine(line, 0, n, !_upperCase);
+                break;
+            }
+            if (interactive && !input.lineReady()) {
+                output.flush();
             }
+        }
+        if (!init) {
+            throw error("input file truncated");
+        }
+        printBlanks(m, blanks, output);
+    }
 
-            printMessageLine(outcome);
+    /** Convert the blank message lines BLANKS with M, print them on
+     *  OUTPUT, and clear BLANKS.  (A run of blank lines just before a
+     *  settings line is instead printed as a single unconverted line.) */
+    private void printBlanks(EnigmaEngine m, ArrayList<String> blanks,
+                             MessageWriter output) {
+        for (String blank : blanks) {
+            output.writeLine(m.convert(blank));
         }
+        blanks.clear();
     }
 
     /** Instance variables for TotalRotors, MovingRotors. */
     private int _numTotalRotors, _numMovingRotors;
-    /** Instance variable for allRotors. */
-    private ArrayList<Rotor> _allRotors;
+    /** The available rotors. */
+    private RotorLibrary _library;
     /** Instance variable for UpperCase. */
     private boolean _upperCase = true;
 
 
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+     *  file _config, or from the image at _configPath if there is no
+     *  _config.  The system property EnigmaEngine.ENGINE_PROPERTY
+     *  names the kind of engine (by default, a Machine). */
+    private EnigmaEngine readConfig() {
+        if (_config == null) {
+            ConfigImage image = ConfigImage.read(_configPath, rotorCache());
+            _alphabet = image.alphabet();
+            _upperCase = image.upperCase();
+            _numTotalRotors = image.numRotors();
+            _numMovingRotors = image.numPawls();
+            _library = image.library();
+            return createEngine();
+        }
         try {
             String al = _config.next();
             _upperCase = Character.isUpperCase(al.charAt(0));
@@ -139,34 +346,34 @@ public final class Main {
                 throw error("configuration file format error");
             }
             _numMovingRotors = _config.nextInt();
-            _allRotors = new ArrayList<>();
+            _library = new RotorLibrary(_alphabet, rotorCache());
             while (_config.hasNext()) {
-                _allRotors.add(readRotor());
+                readRotor();
             }
-
-            validateRotors();
-            return new Machine(_alphabet, _numTotalRotors,
-                    _numMovingRotors, _allRotors);
+            return createEngine();
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
-    /** validate. */
-    private void validateRotors() {
-        HashSet<String> names = new HashSet<>();
-        for (Rotor r : _allRotors) {
-            if (names.contains(r.name())) {
-                throw error("Rotor repeated name");
-            }
-            names.add(r.name());
-        }
+    /** Return the engine named by EnigmaEngine.ENGINE_PROPERTY for the
+     *  configuration read by readConfig. */
+    private EnigmaEngine createEngine() {
+        return EnigmaEngine.create(
+            System.getProperty(EnigmaEngine.ENGINE_PROPERTY,
+                               EnigmaEngine.MACHINE),
+            _alphabet, _numTotalRotors, _numMovingRotors, _library);
+    }
+
+    /** Return the number of rotors to keep built at once. */
+    private static int rotorCache() {
+        return Integer.getInteger(ROTOR_CACHE_PROPERTY, 256);
     }
 
     /** Validate.
      * @param cycles - check
      */
-    private void validateCycles(String cycles) {
+    private static void validateCycles(String cycles) {
         for (String i : cycles.split(" ")) {
             if (i.length() == 0) {
                 continue;
@@ -177,37 +384,36 @@ public final class Main {
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Read a rotor description from _config and add it to _library.
+     *  Only its text is kept until the rotor is used. */
+    private void readRotor() {
         try {
             String name = _config.next().toUpperCase();
             String type = _config.next().toUpperCase();
             String notches = type.substring(1, type.length());
-            String cycles = _config.nextLine().toUpperCase();
+            String line = _config.nextLine().toUpperCase();
             if (_config.hasNext("[(].+")) {
-                cycles = cycles.concat(_config.nextLine().toUpperCase());
-            }
-            validateCycles(cycles);
-
-            if (type.charAt(0) == 'M') {
-                return new MovingRotor(name,
-                        new Permutation(cycles, _alphabet), notches);
-            } else if (type.charAt(0) == 'N') {
-                return new FixedRotor(name, new Permutation(cycles, _alphabet));
-            } else if (type.charAt(0) == 'R') {
-                return new Reflector(name, new Permutation(cycles, _alphabet));
-            } else {
-                throw error("bad rotor format");
+                line = line.concat(_config.nextLine().toUpperCase());
             }
-
+            String cycles = line;
+            _library.add(name, type.charAt(0), notches, alpha -> {
+                validateCycles(cycles);
+                return new Permutation(cycles, alpha);
+            });
         } catch (NoSuchElementException excp) {
             throw error("bad rotor description");
         }
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+     *  which must have the format specified in the assignment.  Lines
+     *  seen recently are set up from _settingsCache. */
+    private void setUp(EnigmaEngine M, String settings) {
+        SettingsCache.Settings cached = _settingsCache.get(settings);
+        if (cached != null) {
+            cached.applyTo(M);
+            return;
+        }
 
         String[] all = settings.trim().split(" ");
         String[] rotors = Arrays.copyOfRange(all, 0, _numTotalRotors);
@@ -223,26 +429,79 @@ public final class Main {
 
         M.insertRotors(rotors);
         M.setRotors(machineSetting);
-        M.setPlugboard(new Permutation(plugBoardCycles, _alphabet));
+        Permutation plugboard = new Permutation(plugBoardCycles, _alphabet);
+        M.setPlugboard(plugboard);
+        _settingsCache.put(settings,
+                           new SettingsCache.Settings(M, rotors,
+                                                      machineSetting,
+                                                      plugboard));
     }
 
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String newret = msg.replaceAll(".{5}", "$0 ");
-        _output.println(newret);
-    }
-
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** System property giving the number of threads converting
+     *  messages.  With more than one, messages are converted in parallel
+     *  by a MessagePipeline. */
+    static final String THREADS_PROPERTY = "enigma.threads";
+
+    /** System property giving an address (see EnigmaServer) on which to
+     *  serve clients, in place of converting a single input. */
+    static final String SERVE_PROPERTY = "enigma.serve";
+
+    /** System property naming a file to which to write the configuration
+     *  as a ConfigImage, in place of converting messages.  Main reads
+     *  such an image wherever it accepts a configuration file. */
+    static final String COMPILE_PROPERTY = "enigma.compile";
+
+    /** System property giving the number of rotors built from the
+     *  configuration to keep at once (see RotorLibrary). */
+    static final String ROTOR_CACHE_PROPERTY = "enigma.rotorCache";
+
+    /** System property giving a crib, which has Main run a Bombe on the
+     *  input in place of converting it (see runBombe). */
+    static final String CRIB_PROPERTY = "enigma.crib";
+
+    /** System property giving the offset of the crib in the ciphertext
+     *  (by default, 0). */
+    static final String CRIB_OFFSET_PROPERTY = "enigma.cribOffset";
+
+    /** System property giving a number K, which has Main print the K
+     *  best keys found by a CoincidenceSearch on the input in place of
+     *  converting it (see runCoincidenceSearch). */
+    static final String COINCIDENCE_PROPERTY = "enigma.coincidence";
+
+    /** System property giving the number of settings lines to keep set
+     *  up in _settingsCache. */
+    static final String SETTINGS_CACHE_PROPERTY = "enigma.settingsCache";
+
+    /** System property that, if true, has statistics printed on the
+     *  standard error at the end. */
+    static final String STATS_PROPERTY = "enigma.stats";
+
+    /** Recently used settings lines. */
+    private final SettingsCache _settingsCache =
+        new SettingsCache(Integer.getInteger(SETTINGS_CACHE_PROPERTY, 64));
+
+    /** Input file of messages, or null for the standard input. */
+    private FileChannel _inputFile;
+
+    /** True iff _inputFile is a regular file that may be mapped. */
+    private boolean _mapInput;
+
     /** Source of input messages. */
-    private Scanner _input;
+    private InputTokenizer _input;
 
-    /** Source of machine configuration. */
+    /** Source of machine configuration, or null if it is an image. */
     private Scanner _config;
 
+    /** Configuration file. */
+    private Path _configPath;
+
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private MessageWriter _output;
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** Converts a stream of messages in parallel.  A reader thread divides
+ *  the input into units, each a settings line together with the message
+ *  lines that follow it.  A pool of workers converts each unit with a
+ *  machine of its own, and the calling thread writes the results in
+ *  input order.  At most a fixed number of units are in flight at once.
+ *  The output, including where an error stops it, is the same as from
+ *  converting the messages one after another.
+ *  @author esun
+ */
+class MessagePipeline {
+
+    /** A pipeline with THREADS workers, each converting with a machine
+     *  obtained from MACHINES and configured for a settings line by
+     *  SETUP.  Message lines are written in lower case iff LOWER. */
+    MessagePipeline(int threads, Supplier<EnigmaEngine> machines,
+                    BiConsumer<EnigmaEngine, String> setUp, boolean lower) {
+        _threads = threads;
+        _machines = ThreadLocal.withInitial(machines);
+        _setUp = setUp;
+        _lower = lower;
+    }
+
+    /** Convert the messages from INPUT, writing the results to
+     *  OUTPUT. */
+    void run(InputTokenizer input, MessageWriter output) {
+        ExecutorService workers =
+            Executors.newFixedThreadPool(_threads, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        BlockingQueue<Future<Unit>> pending =
+            new ArrayBlockingQueue<>(IN_FLIGHT_PER_THREAD * _threads);
+        Thread reader = new Thread(() -> read(input, workers, pending));
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            while (true) {
+                Unit unit = pending.take().get();
+                if (unit == END) {
+                    break;
+                }
+                for (int i = 0; i < unit._done; i += 1) {
+                    Line line = unit._lines.get(i);
+                    output.writeLine(line._chars, 0, line._len,
+                                     _lower && !line._raw);
+                }
+                if (unit._error != null) {
+                    throw unit._error;
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof Error) {
+                throw (Error) excp.getCause();
+            }
+            throw (RuntimeException) excp.getCause();
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /** Divide the lines of INPUT into units, submitting each to WORKERS
+     *  and queuing the results, in order, on PENDING, followed by END.
+     *  Blank lines are handled as in Main: the first of a run of blank
+     *  lines just before a settings line is written unconverted (at the
+     *  end of the preceding unit) and the rest are dropped; other blank
+     *  lines are converted.  Stops quietly once the writer has stopped
+     *  (and shut down WORKERS) because of an error. */
+    private void read(InputTokenizer input, ExecutorService workers,
+                      BlockingQueue<Future<Unit>> pending) {
+        try {
+            Unit unit = new Unit(null);
+            boolean init = false;
+            ArrayList<Line> blanks = new ArrayList<>();
+            try {
+                while (input.next()) {
+                    switch (input.kind()) {
+                    case BLANK:
+                        blanks.add(new Line(input, 0, false));
+                        break;
+                    case SETTINGS:
+                        if (!blanks.isEmpty()) {
+                            Line first = blanks.get(0);
+                            unit._lines.add(new Line(first._chars,
+                                                     first._len, true));
+                            blanks.clear();
+                        }
+                        submit(unit, workers, pending);
+                        unit = new Unit(input.text());
+                        init = true;
+                        break;
+                    default:
+                        if (!init) {
+                            throw error("input file truncated");
+                        }
+                        unit._lines.addAll(blanks);
+                        blanks.clear();
+                        unit._lines.add(new Line(input, 0, false));
+                        break;
+                    }
+                }
+                if (!init) {
+                    throw error("input file truncated");
+                }
+                unit._lines.addAll(blanks);
+            } catch (RuntimeException excp) {
+                unit._error = excp;
+            }
+            submit(unit, workers, pending);
+            pending.put(CompletableFuture.completedFuture(END));
+        } catch (InterruptedException | RejectedExecutionException excp) {
+            return;
+        }
+    }
+
+    /** Queue on PENDING the conversion of UNIT by WORKERS. */
+    private void submit(Unit unit, ExecutorService workers,
+                        BlockingQueue<Future<Unit>> pending)
+        throws InterruptedException {
+        if (unit._settings == null) {
+            unit._done = unit._lines.size();
+            pending.put(CompletableFuture.completedFuture(unit));
+        } else {
+            pending.put(workers.submit(() -> convert(unit)));
+        }
+    }
+
+    /** Convert the lines of UNIT in place with this thread's machine,
+     *  returning UNIT.  An error stops the conversion and is recorded in
+     *  UNIT after the lines converted before it. */
+    private Unit convert(Unit unit) {
+        RuntimeException readError = unit._error;
+        try {
+            EnigmaEngine machine = _machines.get();
+            _setUp.accept(machine, unit._settings);
+            for (Line line : unit._lines) {
+                if (!line._raw) {
+                    line._len = machine.convert(line._chars, 0, line._len);
+                }
+                unit._done += 1;
+            }
+        } catch (RuntimeException excp) {
+            unit._error = excp;
+            return unit;
+        }
+        unit._error = readError;
+        return unit;
+    }
+
+    /** A settings line and the message lines that follow it. */
+    private static class Unit {
+
+        /** A unit for the settings line SETTINGS (null for the lines
+         *  before any settings line). */
+        Unit(String settings) {
+            _settings = settings;
+        }
+
+        /** The settings line, less its "*". */
+        private final String _settings;
+
+        /** The lines following _settings. */
+        private final ArrayList<Line> _lines = new ArrayList<>();
+
+        /** Number of _lines converted and ready to write. */
+        private int _done;
+
+        /** Error ending this unit (and the output), or null. */
+        private RuntimeException _error;
+    }
+
+    /** A line to be written. */
+    private static class Line {
+
+        /** A line holding the first LEN characters of CHARS, which is
+         *  written without conversion iff RAW. */
+        Line(char[] chars, int len, boolean raw) {
+            _chars = chars;
+            _len = len;
+            _raw = raw;
+        }
+
+        /** A line holding a copy of the current line of INPUT from
+         *  START, which is written without conversion iff RAW. */
+        Line(InputTokenizer input, int start, boolean raw) {
+            this(Arrays.copyOfRange(input.buffer(), start, input.end()),
+                 input.end() - start, raw);
+        }
+
+        /** The characters of the line. */
+        private final char[] _chars;
+
+        /** Number of characters in _chars that are used. */
+        private int _len;
+
+        /** True iff this line is written without conversion. */
+        private final boolean _raw;
+    }
+
+    /** Marks the end of the units. */
+    private static final Unit END = new Unit(null);
+
+    /** Units in flight allowed per worker. */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    /** Number of workers. */
+    private final int _threads;
+
+    /** Each worker's machine. */
+    private final ThreadLocal<EnigmaEngine> _machines;
+
+    /** Configures a machine for a settings line. */
+    private final BiConsumer<EnigmaEngine, String> _setUp;
+
+    /** True iff message lines are written in lower case. */
+    private final boolean _lower;
+
+}
@@ -0,0 +1,119 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static enigma.ConfigImageTest.navalImage;
+
+/** The suite of all JUnit tests for the MessagePipeline class, as used
+ *  by Main.
+ *  @author esun
+ */
+public class MessagePipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Settings lines used in the tests. */
+    private static final String[] SETTINGS = {
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C GAMMA V II VIII QEVZ (AQ) (ZT)",
+        "* B BETA I II III AAAA",
+        "  *  B GAMMA VI VII IV ZZZZ (MK)",
+    };
+
+    /** Return input of about UNITS settings lines, each followed by
+     *  random messages and runs of blank lines, chosen using RANDOM. */
+    private static String randomInput(int units, Random random) {
+        StringBuilder input = new StringBuilder();
+        for (int u = 0; u < units; u += 1) {
+            input.append(SETTINGS[random.nextInt(SETTINGS.length)])
+                .append('\n');
+            for (int k = random.nextInt(6); k > 0; k -= 1) {
+                if (random.nextInt(4) == 0) {
+                    input.append(random.nextBoolean() ? "\n" : "  \t\n");
+                    continue;
+                }
+                for (int i = random.nextInt(200); i > 0; i -= 1) {
+                    int r = random.nextInt(32);
+                    input.append(r < 26 ? (char) ('a' + r) : ' ');
+                }
+                input.append('\n');
+            }
+        }
+        return input.toString();
+    }
+
+    /** Run Main on the configuration IMAGE and the messages INPUT with
+     *  THREADS threads, returning its output followed by the error
+     *  message that stopped it, if any. */
+    private static String run(Path image, String input, int threads)
+        throws IOException {
+        Path in = Files.createTempFile("enigma", ".in");
+        Path out = Files.createTempFile("enigma", ".out");
+        String error = "";
+        System.setProperty(Main.THREADS_PROPERTY, Integer.toString(threads));
+        try {
+            Files.write(in, input.getBytes());
+            try {
+                new Main(new String[] { image.toString(), in.toString(),
+                                        out.toString() }).process();
+            } catch (EnigmaException excp) {
+                error = "Error: " + excp.getMessage();
+            }
+            return new String(Files.readAllBytes(out)) + error;
+        } finally {
+            System.clearProperty(Main.THREADS_PROPERTY);
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void checkMatchesSequential() throws IOException {
+        Path image = navalImage(false);
+        try {
+            Random random = new Random(5);
+            for (int trial = 0; trial < 10; trial += 1) {
+                String input = randomInput(1 + random.nextInt(100), random);
+                String expected = run(image, input, 1);
+                assertEquals("trial " + trial, expected,
+                             run(image, input, 4));
+            }
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void checkErrorsMatchSequential() throws IOException {
+        Path image = navalImage(false);
+        try {
+            Random random = new Random(6);
+            String[] inputs = {
+                "HELLO\n" + randomInput(3, random),
+                randomInput(20, random) + "* B BETA III III I AXLE\n"
+                    + randomInput(20, random),
+                randomInput(20, random) + "\n\n* B BETA III IV I AX\n",
+                randomInput(20, random) + "HELLO WORLD?\n"
+                    + randomInput(20, random),
+            };
+            for (String input : inputs) {
+                String expected = run(image, input, 1);
+                assertTrue(expected.contains("Error: "));
+                assertEquals(expected, run(image, input, 3));
+            }
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+}
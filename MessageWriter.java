@@ -0,0 +1,157 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The output stage for converted messages.  Each line is written in
+ *  groups of five characters directly into a large reusable buffer, with
+ *  any case mapping done by table lookup as the characters are stored,
+ *  and the buffer is written out in big chunks.  Characters are encoded
+ *  in the platform's default charset.
+ *  @author esun
+ */
+class MessageWriter {
+
+    /** Size of the output buffer. */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /** A writer sending its output to CHANNEL. */
+    MessageWriter(WritableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    /** A writer sending its output to CHANNEL through a buffer of SIZE
+     *  bytes. */
+    MessageWriter(WritableByteChannel channel, int size) {
+        _channel = channel;
+        _buf = ByteBuffer.allocateDirect(Math.max(size, MIN_BUFFER_SIZE));
+        _charset = Charset.defaultCharset();
+        _newline = System.lineSeparator().getBytes(_charset);
+        char[] ascii = new char[ASCII_LIMIT];
+        for (int c = 0; c < ASCII_LIMIT; c += 1) {
+            ascii[c] = (char) c;
+        }
+        _ascii = Arrays.equals(new String(ascii).getBytes(_charset),
+                               UPPER_TO_UPPER);
+    }
+
+    /** Write the LEN characters of BUF starting at OFF as a line, in
+     *  groups of five separated (and, for full groups, followed) by a
+     *  blank.  The characters are converted to lower case iff LOWER. */
+    void writeLine(char[] buf, int off, int len, boolean lower) {
+        byte[] table = lower ? UPPER_TO_LOWER : UPPER_TO_UPPER;
+        ByteBuffer out = _buf;
+        int pos = out.position();
+        for (int i = 0; i < len; i += 1) {
+            if (out.capacity() - pos < MAX_CHAR_BYTES + 1) {
+                out.position(pos);
+                drain();
+                pos = 0;
+            }
+            char c = buf[off + i];
+            if (c < ASCII_LIMIT && _ascii) {
+                out.put(pos++, table[c]);
+            } else {
+                out.position(pos);
+                out.put(String.valueOf(lower ? Character.toLowerCase(c) : c)
+                        .getBytes(_charset));
+                pos = out.position();
+            }
+            if (i % GROUP == GROUP - 1) {
+                out.put(pos++, (byte) ' ');
+            }
+        }
+        out.position(pos);
+        if (out.remaining() < _newline.length) {
+            drain();
+        }
+        out.put(_newline);
+    }
+
+    /** Write MSG as a line, as for writeLine(char[], int, int, false). */
+    void writeLine(String msg) {
+        writeLine(msg.toCharArray(), 0, msg.length(), false);
+    }
+
+    /** Write TEXT as a line, unchanged. */
+    void writeText(String text) {
+        byte[] bytes = text.getBytes(_charset);
+        for (int i = 0; i < bytes.length; ) {
+            if (!_buf.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(_buf.remaining(), bytes.length - i);
+            _buf.put(bytes, i, n);
+            i += n;
+        }
+        if (_buf.remaining() < _newline.length) {
+            drain();
+        }
+        _buf.put(_newline);
+    }
+
+    /** Write out everything buffered so far. */
+    void flush() {
+        drain();
+    }
+
+    /** Write the contents of _buf to _channel and clear it. */
+    private void drain() {
+        try {
+            _buf.flip();
+            while (_buf.hasRemaining()) {
+                _channel.write(_buf);
+            }
+            _buf.clear();
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
+    /** Smallest buffer size, leaving room for a character and a line
+     *  separator. */
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    /** Number of characters in a group. */
+    private static final int GROUP = 5;
+
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** Upper bound on the bytes needed to encode one character. */
+    private static final int MAX_CHAR_BYTES = 8;
+
+    /** ASCII characters mapped to themselves. */
+    private static final byte[] UPPER_TO_UPPER = new byte[ASCII_LIMIT];
+
+    /** ASCII characters mapped to lower case. */
+    private static final byte[] UPPER_TO_LOWER = new byte[ASCII_LIMIT];
+
+    static {
+        for (int c = 0; c < ASCII_LIMIT; c += 1) {
+            UPPER_TO_UPPER[c] = (byte) c;
+            UPPER_TO_LOWER[c] = (byte) Character.toLowerCase(c);
+        }
+    }
+
+    /** Destination of the output. */
+    private final WritableByteChannel _channel;
+
+    /** Bytes not yet written to _channel. */
+    private final ByteBuffer _buf;
+
+    /** Charset used to encode the output. */
+    private final Charset _charset;
+
+    /** Encoded line separator. */
+    private final byte[] _newline;
+
+    /** True iff _charset encodes ASCII characters as single bytes. */
+    private final boolean _ascii;
+
+}
@@ -9,21 +9,37 @@ class MovingRotor extends Rotor {
 
     /** A rotor named NAME whose permutation in its default setting is
      *  PERM, and whose notches are at the positions indicated in NOTCHES.
-     *  The Rotor is initally in its 0 setting (first character of its
-     *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notches = notches;
+        int n = perm.size();
+        _notchAt = new boolean[n];
+        for (int i = 0; i < notches.length(); i += 1) {
+            char ch = notches.charAt(i);
+            if (perm.alphabet().contains(ch)) {
+                _notchAt[perm.alphabet().toInt(ch)] = true;
+            }
+        }
+        _notchDistance = new int[n];
+        int d = Integer.MAX_VALUE;
+        for (int k = 2 * n - 1; k >= 0; k -= 1) {
+            if (_notchAt[k % n]) {
+                d = 0;
+            } else if (d != Integer.MAX_VALUE) {
+                d += 1;
+            }
+            _notchDistance[k % n] = d;
+        }
     }
 
     @Override
-    boolean atNotch() {
-        char ch = alphabet().toChar(setting());
-        if (_notches.indexOf(ch) >= 0) {
-            return true;
-        }
-        return false;
+    boolean atNotch(int posn) {
+        return _notchAt[posn];
+    }
+
+    @Override
+    int notchDistance(int posn) {
+        return _notchDistance[posn];
     }
 
     @Override
@@ -31,7 +47,10 @@ class MovingRotor extends Rotor {
         return true;
     }
 
-    /** String notches. */
-    private String _notches;
+    /** Entry P is true iff setting P is one of my notches. */
+    private final boolean[] _notchAt;
+
+    /** Entry P is notchDistance(P). */
+    private final int[] _notchDistance;
 
 }
@@ -24,20 +24,20 @@ public class MovingRotorTest {
     private String alpha = UPPER_STRING;
 
     /** Check that rotor has an alphabet whose size is that of
-     *  FROMALPHA and TOALPHA and that maps each character of
-     *  FROMALPHA to the corresponding character of FROMALPHA, and
-     *  vice-versa. TESTID is used in error messages. */
-    private void checkRotor(String testId,
-                            String fromAlpha, String toAlpha) {
+     *  FROMALPHA and TOALPHA and that, at setting POSN, maps each
+     *  character of FROMALPHA to the corresponding character of
+     *  FROMALPHA, and vice-versa. TESTID is used in error messages. */
+    private void checkRotor(String testId, String fromAlpha,
+                            String toAlpha, int posn) {
         int N = fromAlpha.length();
         assertEquals(testId + " (wrong length)", N, rotor.size());
         for (int i = 0; i < N; i += 1) {
             char c = fromAlpha.charAt(i), e = toAlpha.charAt(i);
             int ci = alpha.indexOf(c), ei = alpha.indexOf(e);
             assertEquals(msg(testId, "wrong translation of %d (%c)", ci, c),
-                         ei, rotor.convertForward(ci));
+                         ei, rotor.convertForward(ci, posn));
             assertEquals(msg(testId, "wrong inverse of %d (%c)", ei, e),
-                         ci, rotor.convertBackward(ei));
+                         ci, rotor.convertBackward(ei, posn));
         }
     }
 
@@ -54,21 +54,32 @@ public class MovingRotorTest {
     @Test
     public void checkRotorAtA() {
         setRotor("I", NAVALA, "");
-        checkRotor("Rotor I (A)", UPPER_STRING, NAVALA_MAP.get("I"));
+        checkRotor("Rotor I (A)", UPPER_STRING, NAVALA_MAP.get("I"), 0);
     }
 
     @Test
     public void checkRotorAdvance() {
         setRotor("I", NAVALA, "");
-        rotor.advance();
-        checkRotor("Rotor I advanced", UPPER_STRING, NAVALB_MAP.get("I"));
+        checkRotor("Rotor I advanced", UPPER_STRING, NAVALB_MAP.get("I"),
+                   1);
     }
 
     @Test
     public void checkRotorSet() {
         setRotor("I", NAVALA, "");
-        rotor.set(25);
-        checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
+        checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"), 25);
+    }
+
+    @Test
+    public void checkNotches() {
+        setRotor("I", NAVALA, "QZ");
+        assertTrue(rotor.atNotch(alpha.indexOf('Q')));
+        assertFalse(rotor.atNotch(alpha.indexOf('R')));
+        assertEquals(0, rotor.notchDistance(alpha.indexOf('Z')));
+        assertEquals(16, rotor.notchDistance(alpha.indexOf('A')));
+        assertEquals(8, rotor.notchDistance(alpha.indexOf('R')));
+        setRotor("I", NAVALA, "");
+        assertEquals(Integer.MAX_VALUE, rotor.notchDistance(0));
     }
 
 }
@@ -0,0 +1,194 @@
+package enigma;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** Converts long messages with a Machine by dividing them into chunks
+ *  that are converted in parallel.  Since the machine's settings after
+ *  any number of keypresses can be found directly (Machine.advance), each
+ *  chunk starts from its own copy of the settings, advanced past the
+ *  letters of the chunks before it.
+ *  @author esun
+ */
+class ParallelEnigma {
+
+    /** Default number of characters in a chunk. */
+    static final int DEFAULT_CHUNK = 1 << 20;
+
+    /** A converter for MACHINE using POOL and chunks of CHUNK
+     *  characters. */
+    ParallelEnigma(Machine machine, ForkJoinPool pool, int chunk) {
+        if (chunk <= 0) {
+            throw error("chunk size must be positive");
+        }
+        _machine = machine;
+        _pool = pool;
+        _chunk = chunk;
+    }
+
+    /** A converter for MACHINE using the common pool. */
+    ParallelEnigma(Machine machine) {
+        this(machine, ForkJoinPool.commonPool(), DEFAULT_CHUNK);
+    }
+
+    /** Convert the LEN characters of SRC starting at SRCOFF, skipping
+     *  blanks, and store the results in DST starting at DSTOFF, exactly
+     *  as Machine.convert would, leaving my machine's rotors as they
+     *  would be after the sequential conversion.
+     *  @return the number of characters stored into DST. */
+    int convert(char[] src, int srcOff, int len, char[] dst, int dstOff) {
+        int chunks = (int) (((long) len + _chunk - 1) / _chunk);
+        if (chunks <= 1) {
+            return _machine.convert(src, srcOff, len, dst, dstOff);
+        }
+        if (src == dst) {
+            char[] copy = new char[len];
+            System.arraycopy(src, srcOff, copy, 0, len);
+            src = copy;
+            srcOff = 0;
+        }
+
+        int[] start = new int[chunks + 1];
+        _pool.invoke(new CountTask(src, srcOff, len, start, 0, chunks));
+        for (int k = 0; k < chunks; k += 1) {
+            start[k + 1] += start[k];
+        }
+
+        int[][] posns = new int[chunks][];
+        int[] initial = _machine.positions();
+        _pool.invoke(new ConvertTask(src, srcOff, len, dst, dstOff,
+                                     start, initial, posns, 0, chunks));
+        _machine.setPositions(posns[chunks - 1]);
+        return start[chunks];
+    }
+
+    /** Return the conversion of MSG, as for Machine.convert(MSG). */
+    String convert(String msg) {
+        char[] src = msg.toCharArray();
+        char[] dst = new char[src.length];
+        return new String(dst, 0, convert(src, 0, src.length, dst, 0));
+    }
+
+    /** Counts the non-blank characters of chunks FROM to TO of the LEN
+     *  characters of SRC starting at SRCOFF.  The count for chunk K goes
+     *  to COUNTS[K + 1]. */
+    private class CountTask extends RecursiveAction {
+
+        /** A task counting chunks FROM .. TO-1 of SRC[SRCOFF ..
+         *  SRCOFF + LEN - 1] into COUNTS. */
+        CountTask(char[] src, int srcOff, int len, int[] counts,
+                  int from, int to) {
+            _src = src;
+            _srcOff = srcOff;
+            _len = len;
+            _counts = counts;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > 1) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new CountTask(_src, _srcOff, _len, _counts,
+                                        _from, mid),
+                          new CountTask(_src, _srcOff, _len, _counts,
+                                        mid, _to));
+                return;
+            }
+            int lo = _srcOff + _from * _chunk;
+            int hi = _srcOff + (int) Math.min(_len, (_from + 1L) * _chunk);
+            int count = 0;
+            for (int i = lo; i < hi; i += 1) {
+                if (_src[i] != ' ') {
+                    count += 1;
+                }
+            }
+            _counts[_from + 1] = count;
+        }
+
+        /** Characters being counted. */
+        private final char[] _src;
+        /** Start and length of the characters being counted. */
+        private final int _srcOff, _len;
+        /** Destination of the counts. */
+        private final int[] _counts;
+        /** Range of chunks handled by this task. */
+        private final int _from, _to;
+    }
+
+    /** Converts chunks FROM to TO of the LEN characters of SRC starting
+     *  at SRCOFF into DST.  Chunk K starts at keypress START[K] and its
+     *  output starts at DST[DSTOFF + START[K]]; the rotor settings after
+     *  it go to POSNS[K]. */
+    private class ConvertTask extends RecursiveAction {
+
+        /** A task converting chunks FROM .. TO-1 of SRC[SRCOFF ..
+         *  SRCOFF + LEN - 1] into DST[DSTOFF ..], where the settings
+         *  before the first keypress are INITIAL. */
+        ConvertTask(char[] src, int srcOff, int len, char[] dst, int dstOff,
+                    int[] start, int[] initial, int[][] posns,
+                    int from, int to) {
+            _src = src;
+            _srcOff = srcOff;
+            _len = len;
+            _dst = dst;
+            _dstOff = dstOff;
+            _start = start;
+            _initial = initial;
+            _posns = posns;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > 1) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new ConvertTask(_src, _srcOff, _len, _dst, _dstOff,
+                                          _start, _initial, _posns,
+                                          _from, mid),
+                          new ConvertTask(_src, _srcOff, _len, _dst, _dstOff,
+                                          _start, _initial, _posns,
+                                          mid, _to));
+                return;
+            }
+            int[] posn = _initial.clone();
+            _machine.advance(posn, _start[_from]);
+            int lo = _from * _chunk;
+            int hi = (int) Math.min(_len, (_from + 1L) * _chunk);
+            _machine.convert(_src, _srcOff + lo, hi - lo,
+                             _dst, _dstOff + _start[_from], posn);
+            _posns[_from] = posn;
+        }
+
+        /** Characters being converted. */
+        private final char[] _src;
+        /** Start and length of the characters being converted. */
+        private final int _srcOff, _len;
+        /** Destination of the converted characters. */
+        private final char[] _dst;
+        /** Start of the output in _dst. */
+        private final int _dstOff;
+        /** Keypress number at the start of each chunk. */
+        private final int[] _start;
+        /** Rotor settings before the first keypress. */
+        private final int[] _initial;
+        /** Rotor settings after each chunk. */
+        private final int[][] _posns;
+        /** Range of chunks handled by this task. */
+        private final int _from, _to;
+    }
+
+    /** The machine whose settings and wiring are used. */
+    private final Machine _machine;
+
+    /** Pool running the conversion. */
+    private final ForkJoinPool _pool;
+
+    /** Number of characters in a chunk. */
+    private final int _chunk;
+
+}
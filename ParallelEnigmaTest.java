@@ -0,0 +1,62 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.MachineTest.*;
+
+/** The suite of all JUnit tests for the ParallelEnigma class.
+ *  @author esun
+ */
+public class ParallelEnigmaTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(500);
+
+    /** Return a random message of LEN upper-case letters and blanks. */
+    private static String randomMessage(int len, long seed) {
+        Random random = new Random(seed);
+        char[] msg = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            int r = random.nextInt(32);
+            msg[i] = r < 26 ? (char) ('A' + r) : ' ';
+        }
+        return new String(msg);
+    }
+
+    @Test
+    public void checkMatchesSequential() {
+        String msg = randomMessage(300_000, 7);
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine seq = naval(SPEC_ROTORS, "AXLE", plugs);
+        Machine par = naval(SPEC_ROTORS, "AXLE", plugs);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelEnigma parallel = new ParallelEnigma(par, pool, 4099);
+            assertEquals(seq.convert(msg), parallel.convert(msg));
+            assertEquals("settings after parallel conversion",
+                         seq.convert("CONTINUATION"),
+                         par.convert("CONTINUATION"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void checkInPlace() {
+        String msg = randomMessage(50_000, 11);
+        Machine seq = naval(SPEC_ROTORS, "QEVZ", "");
+        Machine par = naval(SPEC_ROTORS, "QEVZ", "");
+        char[] buf = msg.toCharArray();
+        int n = new ParallelEnigma(par, ForkJoinPool.commonPool(), 1000)
+            .convert(buf, 0, buf.length, buf, 0);
+        assertEquals(seq.convert(msg), new String(buf, 0, n));
+    }
+
+}
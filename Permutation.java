@@ -1,7 +1,5 @@
 package enigma;
 
-import java.util.HashMap;
-
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
  *  @author esun
@@ -12,45 +10,72 @@ class Permutation {
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
-     *  Whitespace is ignored. */
+     *  Whitespace is ignored.  The tables are shared with every other
+     *  Permutation of ALPHABET with the same mapping (see
+     *  PermutationCache). */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _forwardMap = new HashMap<>();
-        _backwardMap = new HashMap<>();
-        String[] c = cycles.split("[( )]");
-        for (String i : c) {
-            addCycle(i);
+        PermutationCache.Tables tables =
+            PermutationCache.get(cycles, alphabet);
+        if (tables == null) {
+            int[] forward = new int[alphabet.size()];
+            int[] inverse = new int[alphabet.size()];
+            for (int i = 0; i < forward.length; i += 1) {
+                forward[i] = i;
+                inverse[i] = i;
+            }
+            String[] c = cycles.split("[( )]");
+            for (String i : c) {
+                addCycle(i, forward, inverse);
+            }
+            tables = PermutationCache.intern(cycles, alphabet, forward,
+                                             inverse);
         }
+        _tables = tables;
+        _forward = tables.forward();
+        _inverse = tables.inverse();
+    }
+
+    /** The permutation of ALPHABET taking P to FORWARD[P], where INVERSE
+     *  is its inverse.  The tables must not be modified, and are shared
+     *  as for the cycle notation constructor. */
+    Permutation(int[] forward, int[] inverse, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _tables = PermutationCache.intern(null, alphabet, forward, inverse);
+        _forward = _tables.forward();
+        _inverse = _tables.inverse();
     }
 
-    /** Declaring HashMaps for forwards and backwards. */
-    private HashMap<Character, Character> _forwardMap, _backwardMap;
+    /** My tables, shared with equal permutations. */
+    private final PermutationCache.Tables _tables;
+
+    /** Forward and inverse tables, indexed by alphabet index. */
+    private final int[] _forward, _inverse;
 
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation whose tables
+     *  are FORWARD and INVERSE, where CYCLE is c0c1...cm. */
 
-    private void addCycle(String cycle) {
+    private void addCycle(String cycle, int[] forward, int[] inverse) {
         if (cycle.length() == 0) {
             return;
         }
-        char from, to;
+        int from, to;
         for (int i = 0; i < cycle.length(); i++) {
-            if (i == cycle.length() - 1) {
-                from = cycle.charAt(i);
-                to = cycle.charAt(0);
-                _forwardMap.put(from, to);
-                _backwardMap.put(to, from);
-                break;
-            }
-            int j = i + 1;
-            from = cycle.charAt(i);
-            to = cycle.charAt(j);
-            _forwardMap.put(from, to);
-            _backwardMap.put(to, from);
+            int j = (i + 1) % cycle.length();
+            from = _alphabet.toInt(cycle.charAt(i));
+            to = _alphabet.toInt(cycle.charAt(j));
+            forward[from] = to;
+            inverse[to] = from;
         }
     }
 
+    /** Return my tables, which are shared with every Permutation of my
+     *  alphabet with the same mapping. */
+    PermutationCache.Tables tables() {
+        return _tables;
+    }
+
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
         int r = p % size();
@@ -68,36 +93,30 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char ch = _alphabet.toChar(p);
-        char nch = permute(ch);
-        int index = _alphabet.toInt(nch);
-        return index;
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char ch = _alphabet.toChar(c);
-        int nch = invert(ch);
-        int index = _alphabet.toInt((char) nch);
-        return index;
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        if (_forwardMap.containsKey(p)) {
-            return _forwardMap.get(p);
+        if (!_alphabet.contains(p)) {
+            return p;
         }
-        return p;
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     int invert(char c) {
-        if (_backwardMap.containsKey(c)) {
-            return _backwardMap.get(c);
+        if (!_alphabet.contains(c)) {
+            return c;
         }
-        return c;
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -0,0 +1,201 @@
+package enigma;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A process-wide cache that makes Permutations with the same mapping
+ *  share one set of tables, however their cycles are written, so that
+ *  rotor libraries and plugboards repeating a wiring, and the many
+ *  machines of the parallel and server modes, hold a single copy.  Tables
+ *  are canonicalized by alphabet (by identity) and mapping, and are also
+ *  found directly by the cycle notation last used to make them.  Lookups
+ *  take no locks.  Entries are held by soft references, so tables that
+ *  no Permutation uses are discarded when memory runs short.
+ *  @author esun
+ */
+final class PermutationCache {
+
+    /** The tables of a permutation.  None may be modified. */
+    static final class Tables {
+
+        /** Tables holding the mapping FORWARD and its inverse INVERSE. */
+        private Tables(int[] forward, int[] inverse) {
+            _forward = forward;
+            _inverse = inverse;
+        }
+
+        /** Return the forward table: entry P is the image of P. */
+        int[] forward() {
+            return _forward;
+        }
+
+        /** Return the inverse table. */
+        int[] inverse() {
+            return _inverse;
+        }
+
+        /** Return the forward conversion table of a rotor with this
+         *  wiring: entry S * N + P is the conversion of P at setting S,
+         *  where N is the size of the alphabet. */
+        int[] forwardConjugates() {
+            return conjugates()[0];
+        }
+
+        /** Return the backward conversion table of a rotor with this
+         *  wiring, indexed as forwardConjugates(). */
+        int[] backwardConjugates() {
+            return conjugates()[1];
+        }
+
+        /** Return forwardConjugates() and backwardConjugates(), computing
+         *  them the first time.  Threads may race to compute them, which
+         *  is harmless. */
+        private int[][] conjugates() {
+            int[][] result = _conjugates;
+            if (result == null) {
+                int n = _forward.length;
+                int[] forward = new int[n * n], backward = new int[n * n];
+                for (int s = 0; s < n; s += 1) {
+                    for (int p = 0; p < n; p += 1) {
+                        int q = p + s < n ? p + s : p + s - n;
+                        int f = _forward[q] - s, b = _inverse[q] - s;
+                        forward[s * n + p] = f < 0 ? f + n : f;
+                        backward[s * n + p] = b < 0 ? b + n : b;
+                    }
+                }
+                result = new int[][] { forward, backward };
+                _conjugates = result;
+            }
+            return result;
+        }
+
+        /** The mapping and its inverse. */
+        private final int[] _forward, _inverse;
+
+        /** The rotor conversion tables, or null if not yet computed. */
+        private volatile int[][] _conjugates;
+    }
+
+    /** Not instantiable. */
+    private PermutationCache() {
+    }
+
+    /** Return the tables last made for the cycle notation CYCLES over
+     *  ALPHA, or null if there are none. */
+    static Tables get(String cycles, Alphabet alpha) {
+        Entry entry = BY_CYCLES.get(new Key(alpha, cycles));
+        return entry == null ? null : entry.get();
+    }
+
+    /** Return the shared tables for the permutation of ALPHA whose
+     *  mapping is FORWARD, with inverse INVERSE, recording that they are
+     *  given by the cycle notation CYCLES unless it is null.  FORWARD
+     *  and INVERSE become the shared tables if there are none yet, and
+     *  must not be modified. */
+    static Tables intern(String cycles, Alphabet alpha, int[] forward,
+                         int[] inverse) {
+        purge();
+        Key key = new Key(alpha, forward);
+        Tables result = null;
+        while (result == null) {
+            Entry entry = BY_MAPPING.get(key);
+            result = entry == null ? null : entry.get();
+            if (result == null) {
+                Tables tables = new Tables(forward, inverse);
+                Entry fresh = new Entry(BY_MAPPING, key, tables);
+                if (entry == null ? BY_MAPPING.putIfAbsent(key, fresh) == null
+                    : BY_MAPPING.replace(key, entry, fresh)) {
+                    result = tables;
+                }
+            }
+        }
+        if (cycles != null) {
+            Key cyclesKey = new Key(alpha, cycles);
+            BY_CYCLES.put(cyclesKey, new Entry(BY_CYCLES, cyclesKey, result));
+        }
+        return result;
+    }
+
+    /** Remove the entries whose tables have been discarded. */
+    private static void purge() {
+        for (Object ref = QUEUE.poll(); ref != null; ref = QUEUE.poll()) {
+            Entry entry = (Entry) ref;
+            entry._map.remove(entry._key, entry);
+        }
+    }
+
+    /** A key of the form (alphabet, value), comparing alphabets by
+     *  identity and values by content. */
+    private static final class Key {
+
+        /** The key (ALPHA, VALUE), where VALUE is a String or int[]. */
+        Key(Alphabet alpha, Object value) {
+            _alphabet = alpha;
+            _value = value;
+            int h = value instanceof int[] ? Arrays.hashCode((int[]) value)
+                : value.hashCode();
+            _hash = 31 * System.identityHashCode(alpha) + h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (other._alphabet != _alphabet || other._hash != _hash) {
+                return false;
+            }
+            if (_value instanceof int[] && other._value instanceof int[]) {
+                return Arrays.equals((int[]) _value, (int[]) other._value);
+            }
+            return _value.equals(other._value);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The alphabet. */
+        private final Alphabet _alphabet;
+
+        /** The cycle notation or mapping. */
+        private final Object _value;
+
+        /** My hash code. */
+        private final int _hash;
+    }
+
+    /** A soft reference to tables, remembering where it is stored. */
+    private static final class Entry extends SoftReference<Tables> {
+
+        /** An entry for TABLES stored in MAP under KEY. */
+        Entry(ConcurrentHashMap<Key, Entry> map, Key key, Tables tables) {
+            super(tables, QUEUE);
+            _map = map;
+            _key = key;
+        }
+
+        /** The map holding me. */
+        private final ConcurrentHashMap<Key, Entry> _map;
+
+        /** My key in _map. */
+        private final Key _key;
+    }
+
+    /** Entries whose tables have been discarded. */
+    private static final ReferenceQueue<Tables> QUEUE =
+        new ReferenceQueue<>();
+
+    /** Tables by alphabet and mapping. */
+    private static final ConcurrentHashMap<Key, Entry> BY_MAPPING =
+        new ConcurrentHashMap<>();
+
+    /** Tables by alphabet and cycle notation. */
+    private static final ConcurrentHashMap<Key, Entry> BY_CYCLES =
+        new ConcurrentHashMap<>();
+
+}
@@ -89,4 +89,23 @@ public class PermutationTest {
 
     }
 
+    @Test
+    public void checkSharedTables() {
+        Permutation p1 = new Permutation("(ABC) (DE)", UPPER);
+        Permutation p2 = new Permutation(" (ED)(CAB) (F)", UPPER);
+        Permutation p3 = new Permutation("(ABC) (DE)", UPPER);
+        Permutation p4 = new Permutation("(ACB) (DE)", UPPER);
+        assertSame(p1.tables(), p2.tables());
+        assertSame(p1.tables(), p3.tables());
+        assertNotSame(p1.tables(), p4.tables());
+        assertEquals('B', p2.permute('A'));
+        assertEquals('C', p4.permute('A'));
+        Permutation p5 = new Permutation("(ABC) (DE)",
+                                         new CharacterRange('A', 'Z'));
+        assertNotSame(p1.tables(), p5.tables());
+        Rotor r1 = new FixedRotor("X", p1), r2 = new Reflector("Y", p2);
+        assertSame(r1.forwardTable(), r2.forwardTable());
+        assertSame(r1.backwardTable(), r2.backwardTable());
+    }
+
 }
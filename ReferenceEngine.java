@@ -0,0 +1,196 @@
+package enigma;
+
+import java.util.Collection;
+
+import static enigma.EnigmaException.*;
+
+/** The reference Enigma engine: each keypress steps the rotors and
+ *  passes the character through the plugboard and each rotor in turn,
+ *  exactly as the machine is described, with no caching or other
+ *  optimization.  Rotors are applied from their wiring, not from the
+ *  precomputed tables the other engines use.  It is slow but simple,
+ *  and serves as the standard against which the optimized engines are
+ *  checked.
+ *  @author esun
+ */
+class ReferenceEngine implements EnigmaEngine {
+
+    /** A new engine with alphabet ALPHA, 1 < NUMROTORS rotor slots, and
+     *  0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
+     *  available rotors. */
+    ReferenceEngine(Alphabet alpha, int numRotors, int pawls,
+                    Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorLibrary(allRotors));
+    }
+
+    /** A new engine with alphabet ALPHA, 1 < NUMROTORS rotor slots, and
+     *  0 <= PAWLS < NUMROTORS pawls, whose available rotors are those in
+     *  LIBRARY. */
+    ReferenceEngine(Alphabet alpha, int numRotors, int pawls,
+                    RotorLibrary library) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        _library = library;
+        _library.reserve(numRotors);
+    }
+
+    @Override
+    public int numRotors() {
+        return _numRotors;
+    }
+
+    @Override
+    public int numPawls() {
+        return _numPawls;
+    }
+
+    @Override
+    public void insertRotors(String[] rotors) {
+        Rotor[] active = new Rotor[rotors.length];
+        int[] order = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i += 1) {
+            order[i] = _library.indexOf(rotors[i]);
+            active[i] = order[i] < 0 ? null : _library.get(order[i]);
+        }
+        Machine.validateRotors(active, order, _numRotors - _numPawls);
+        _rotors = active;
+        _settings = new int[active.length];
+    }
+
+    @Override
+    public void setRotors(String setting) {
+        if (setting.length() != _numRotors - 1) {
+            throw error("wrong number of rotor settings");
+        }
+        for (int i = 1; i < _numRotors; i += 1) {
+            _settings[i] = _alphabet.toInt(setting.charAt(i - 1));
+        }
+    }
+
+    @Override
+    public void setPlugboard(Permutation plugboard) {
+        _plugboard = plugboard;
+    }
+
+    @Override
+    public int convert(int c) {
+        step();
+        int p = _plugboard.permute(c);
+        for (int i = _rotors.length - 1; i >= 0; i -= 1) {
+            p = forward(_rotors[i], p, _settings[i]);
+        }
+        for (int i = 1; i < _rotors.length; i += 1) {
+            p = backward(_rotors[i], p, _settings[i]);
+        }
+        return _plugboard.invert(p);
+    }
+
+    /** Return the conversion of P by rotor R at setting S, on the way
+     *  in, computed from R's wiring rather than its conversion tables
+     *  (which the optimized engines share). */
+    private static int forward(Rotor r, int p, int s) {
+        Permutation perm = r.permutation();
+        return perm.wrap(perm.permute(perm.wrap(p + s)) - s);
+    }
+
+    /** Return the conversion of P by rotor R at setting S, on the way
+     *  out, computed as for forward. */
+    private static int backward(Rotor r, int p, int s) {
+        Permutation perm = r.permutation();
+        return perm.wrap(perm.invert(perm.wrap(p + s)) - s);
+    }
+
+    /** Advance my rotors by one keypress.  The rightmost rotor always
+     *  advances; any other rotor with a pawl advances if the rotor to
+     *  its right is at a notch, or if it is itself at a notch and the
+     *  rotor to its left has a pawl. */
+    private void step() {
+        int last = _rotors.length - 1;
+        int first = _numRotors - _numPawls;
+        boolean[] moves = new boolean[_rotors.length];
+        moves[last] = true;
+        for (int i = first; i < last; i += 1) {
+            if (_rotors[i + 1].atNotch(_settings[i + 1])) {
+                moves[i] = true;
+                moves[i + 1] = true;
+            }
+        }
+        for (int i = first; i <= last; i += 1) {
+            if (moves[i]) {
+                _settings[i] = (_settings[i] + 1) % _alphabet.size();
+            }
+        }
+    }
+
+    @Override
+    public int convert(char[] buf, int off, int len) {
+        int n = off;
+        for (int i = off; i < off + len; i += 1) {
+            if (buf[i] != ' ') {
+                buf[n] = _alphabet.toChar(convert(_alphabet.toInt(buf[i])));
+                n += 1;
+            }
+        }
+        return n - off;
+    }
+
+    @Override
+    public void advance(long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative count");
+        }
+        for (long k = 0; k < n; k += 1) {
+            step();
+        }
+    }
+
+    @Override
+    public long snapshot() {
+        long state = 0;
+        for (int i = _settings.length - 1; i > 0; i -= 1) {
+            state = Math.multiplyExact(state, _alphabet.size())
+                + _settings[i];
+        }
+        return state;
+    }
+
+    @Override
+    public void restore(long state) {
+        for (int i = 1; i < _settings.length; i += 1) {
+            _settings[i] = (int) (state % _alphabet.size());
+            state /= _alphabet.size();
+        }
+    }
+
+    @Override
+    public ReferenceEngine copy() {
+        ReferenceEngine result =
+            new ReferenceEngine(_alphabet, _numRotors, _numPawls, _library);
+        if (_rotors != null) {
+            result._rotors = _rotors.clone();
+            result._settings = _settings.clone();
+        }
+        result._plugboard = _plugboard;
+        return result;
+    }
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Numbers of slots and pawls. */
+    private final int _numRotors, _numPawls;
+
+    /** The available rotors. */
+    private final RotorLibrary _library;
+
+    /** The rotors in my slots, reflector first. */
+    private Rotor[] _rotors;
+
+    /** The settings of _rotors. */
+    private int[] _settings;
+
+    /** My plugboard. */
+    private Permutation _plugboard;
+
+}
@@ -13,13 +13,6 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
-    @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        }
-    }
-
     @Override
     boolean reflecting() {
         return true;
@@ -2,7 +2,11 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor
+ *  holds only its wiring and notches, which never change after
+ *  construction.  Its setting is kept by whoever uses it (a Machine keeps
+ *  one per slot) and passed to each method, so a rotor may be shared by
+ *  any number of machines and threads.
  *  @author esun
  */
 class Rotor {
@@ -11,7 +15,8 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
-        _setting = 0;
+        _forwardTable = perm.tables().forwardConjugates();
+        _backwardTable = perm.tables().backwardConjugates();
     }
 
     /** Return my name. */
@@ -44,49 +49,42 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
-    }
-
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = posn;
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation when I am at setting POSN. */
+    int convertForward(int p, int posn) {
+        return _forwardTable[posn * size() + p];
     }
 
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation when I am at setting
+     *  POSN. */
+    int convertBackward(int e, int posn) {
+        return _backwardTable[posn * size() + e];
     }
 
-    /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        int np = permutation().wrap(p + setting());
-        int ret = permutation().permute(np);
-        int nret = permutation().wrap(ret - setting());
-        return nret;
+    /** Return my forward conversion table: entry S * size() + P is
+     *  convertForward(P, S).  The table must not be modified. */
+    int[] forwardTable() {
+        return _forwardTable;
     }
 
-    /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        int np = permutation().wrap(e + setting());
-        int ret = permutation().invert(np);
-        int nret = permutation().wrap(ret - setting());
-        return nret;
+    /** Return my backward conversion table: entry S * size() + E is
+     *  convertBackward(E, S).  The table must not be modified. */
+    int[] backwardTable() {
+        return _backwardTable;
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
+    /** Returns true iff setting POSN is one of my notches, which allows
+     *  the rotor to my left to advance. */
+    boolean atNotch(int posn) {
         return false;
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
-        _setting += 1;
-        _setting = _permutation.wrap(_setting);
+    /** Return the number of times I must advance from setting POSN to
+     *  reach a notch (0 if POSN is a notch), or Integer.MAX_VALUE if I
+     *  have none. */
+    int notchDistance(int posn) {
+        return Integer.MAX_VALUE;
     }
 
     @Override
@@ -99,9 +97,11 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    private final Permutation _permutation;
 
-    /** Setting for Rotor. */
-    private int _setting;
+    /** My permutation conjugated by each setting: entry S * size() + P
+     *  is the forward (resp. backward) conversion of P at setting S.
+     *  Shared by all rotors with the same wiring. */
+    private final int[] _forwardTable, _backwardTable;
 
 }
@@ -0,0 +1,235 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to a machine, indexed by name and by number.  A
+ *  rotor may be added already built, or as a definition (its kind,
+ *  notches, and a source for its wiring), in which case it is built the
+ *  first time it is asked for.  Built rotors of the latter kind are kept
+ *  in a cache holding at most a fixed number, discarding the least
+ *  recently used, so that with a large library, memory and startup time
+ *  depend on the rotors in use rather than on the number available.
+ *  Once all rotors are added, a RotorLibrary may be shared by several
+ *  threads.
+ *  @author esun
+ */
+class RotorLibrary {
+
+    /** Produces the wiring of a rotor when it is built. */
+    interface Wiring {
+        /** Return the wiring, a permutation of ALPHA in the rotor's 0
+         *  setting. */
+        Permutation build(Alphabet alpha);
+    }
+
+    /** An empty library of rotors over ALPHA, keeping at most CAPACITY
+     *  rotors built from definitions. */
+    RotorLibrary(Alphabet alpha, int capacity) {
+        _alphabet = alpha;
+        _capacity = capacity;
+        _built = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer,
+                                                Rotor> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** A library of the already built rotors ROTORS. */
+    RotorLibrary(Collection<Rotor> rotors) {
+        this(rotors.isEmpty() ? null : rotors.iterator().next().alphabet(),
+             0);
+        for (Rotor r : rotors) {
+            add(r);
+        }
+    }
+
+    /** Add the built rotor R. */
+    void add(Rotor r) {
+        add(new Entry(r.name(), r, ' ', null, null));
+    }
+
+    /** Add a rotor named NAME of kind KIND ('M' for moving, 'N' for
+     *  fixed, or 'R' for a reflector) with notches NOTCHES, whose wiring
+     *  is built by WIRING when the rotor is first used. */
+    void add(String name, char kind, String notches, Wiring wiring) {
+        if (kind != 'M' && kind != 'N' && kind != 'R') {
+            throw error("bad rotor format");
+        }
+        add(new Entry(name, null, kind, notches, wiring));
+    }
+
+    /** Add ENTRY as the next rotor. */
+    private void add(Entry entry) {
+        if (_index.putIfAbsent(entry._name, _entries.size()) != null) {
+            throw error("Rotor repeated name");
+        }
+        _entries.add(entry);
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the number of the rotor named NAME, or -1 if there is
+     *  none. */
+    int indexOf(String name) {
+        return _index.getOrDefault(name, -1);
+    }
+
+    /** Return the rotor named NAME, or null if there is none. */
+    Rotor get(String name) {
+        int k = indexOf(name);
+        return k < 0 ? null : get(k);
+    }
+
+    /** Return rotor number K, building it if necessary. */
+    Rotor get(int k) {
+        Rotor r = _entries.get(k)._rotor;
+        if (r != null) {
+            return r;
+        }
+        synchronized (_built) {
+            r = _built.get(k);
+            if (r == null) {
+                r = build(k);
+                _built.put(k, r);
+                _builds += 1;
+            }
+            return r;
+        }
+    }
+
+    /** Keep at least N rotors built at once, so that a machine with N
+     *  slots does not evict its own rotors while they are inserted. */
+    void reserve(int n) {
+        synchronized (_built) {
+            _capacity = Math.max(_capacity, n);
+        }
+    }
+
+    /** Return the number of rotors built from definitions so far,
+     *  including rebuilds of those dropped from the cache. */
+    long builds() {
+        synchronized (_built) {
+            return _builds;
+        }
+    }
+
+    /** Return every valid choice of rotors (by name, reflector first)
+     *  for a machine with NUMROTORS slots and PAWLS pawls.  All my rotors
+     *  are built to find their kinds. */
+    List<String[]> rotorOrders(int numRotors, int pawls) {
+        ArrayList<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (int k = 0; k < size(); k += 1) {
+            Rotor r = get(k);
+            if (r.reflecting()) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        ArrayList<String[]> result = new ArrayList<>();
+        String[] order = new String[numRotors];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            addOrders(order, 1, numRotors - pawls, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT the orders starting with ORDER[0 .. I-1] that fill
+     *  the remaining slots from FIXED (before slot FIRSTMOVING) and
+     *  MOVING. */
+    private static void addOrders(String[] order, int i, int firstMoving,
+                                  List<String> fixed, List<String> moving,
+                                  List<String[]> result) {
+        if (i == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        for (String name : i < firstMoving ? fixed : moving) {
+            if (!Arrays.asList(order).subList(0, i).contains(name)) {
+                order[i] = name;
+                addOrders(order, i + 1, firstMoving, fixed, moving, result);
+            }
+        }
+    }
+
+    /** Return a new rotor built from definition K. */
+    private Rotor build(int k) {
+        Entry entry = _entries.get(k);
+        Permutation perm = entry._wiring.build(_alphabet);
+        switch (entry._kind) {
+        case 'M':
+            return new MovingRotor(entry._name, perm, entry._notches);
+        case 'N':
+            return new FixedRotor(entry._name, perm);
+        default:
+            return new Reflector(entry._name, perm);
+        }
+    }
+
+    /** A rotor, built or as a definition. */
+    private static final class Entry {
+
+        /** A rotor named NAME, either built as ROTOR, or if that is null,
+         *  defined by KIND, NOTCHES, and WIRING (as for add). */
+        Entry(String name, Rotor rotor, char kind, String notches,
+              Wiring wiring) {
+            _name = name;
+            _rotor = rotor;
+            _kind = kind;
+            _notches = notches;
+            _wiring = wiring;
+        }
+
+        /** The rotor's name. */
+        private final String _name;
+
+        /** The built rotor, or null for a definition. */
+        private final Rotor _rotor;
+
+        /** The definition's kind. */
+        private final char _kind;
+
+        /** The definition's notches. */
+        private final String _notches;
+
+        /** Source of the definition's wiring. */
+        private final Wiring _wiring;
+    }
+
+    /** The alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Maximum number of rotors in _built.  Guarded by _built. */
+    private int _capacity;
+
+    /** Rotor numbers by name. */
+    private final HashMap<String, Integer> _index = new HashMap<>();
+
+    /** The rotors, by number. */
+    private final ArrayList<Entry> _entries = new ArrayList<>();
+
+    /** Rotors built from definitions, by number, least recently used
+     *  first. */
+    private final LinkedHashMap<Integer, Rotor> _built;
+
+    /** Number of rotors built from definitions. */
+    private long _builds;
+
+}
@@ -0,0 +1,89 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RotorLibrary class.
+ *  @author esun
+ */
+public class RotorLibraryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a library of the naval rotors as definitions, keeping at
+     *  most CAPACITY built. */
+    private RotorLibrary navalDefinitions(int capacity) {
+        RotorLibrary library = new RotorLibrary(UPPER, capacity);
+        for (String name : NAVALA.keySet()) {
+            String cycles = NAVALA.get(name);
+            char kind = NOTCHES.containsKey(name) ? 'M'
+                : name.equals("B") || name.equals("C") ? 'R' : 'N';
+            library.add(name, kind, NOTCHES.getOrDefault(name, ""),
+                        alpha -> new Permutation(cycles, alpha));
+        }
+        return library;
+    }
+
+    @Test
+    public void checkLazyBuilds() {
+        RotorLibrary library = navalDefinitions(8);
+        assertEquals(NAVALA.size(), library.size());
+        assertEquals(0, library.builds());
+        Machine mach = new Machine(UPPER, 5, 3, library);
+        mach.insertRotors(SPEC_ROTORS);
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                          UPPER));
+        assertEquals(SPEC_ROTORS.length, library.builds());
+        assertEquals("QVPQSOKOIL", mach.convert("FROMH ISSHO"));
+        mach.insertRotors(SPEC_ROTORS);
+        assertEquals(SPEC_ROTORS.length, library.builds());
+    }
+
+    @Test
+    public void checkEviction() {
+        RotorLibrary library = navalDefinitions(2);
+        Rotor first = library.get("I");
+        library.get("II");
+        assertSame(first, library.get("I"));
+        library.get("III");
+        assertEquals(3, library.builds());
+        library.get("II");
+        assertEquals(4, library.builds());
+        assertTrue(library.get("I").rotates());
+        assertTrue(library.get("B").reflecting());
+        assertNull(library.get("IX"));
+    }
+
+    @Test
+    public void checkRepeatAfterEviction() {
+        RotorLibrary library = navalDefinitions(1);
+        Machine mach = new Machine(UPPER, 5, 3, library);
+        try {
+            mach.insertRotors(new String[] { "B", "Beta", "III", "IV",
+                                             "III" });
+            fail("repeated rotor accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("Rotor repeated setting name", excp.getMessage());
+        }
+        mach.insertRotors(SPEC_ROTORS);
+        long builds = library.builds();
+        mach.insertRotors(SPEC_ROTORS);
+        assertEquals("rotors of one machine kept", builds,
+                     library.builds());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRepeatedName() {
+        RotorLibrary library = navalDefinitions(2);
+        library.add("I", 'N', "", alpha -> new Permutation("", alpha));
+    }
+
+}
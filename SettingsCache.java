@@ -0,0 +1,130 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of parsed settings lines, discarding the least
+ *  recently used line when full.  Each entry holds what the line sets
+ *  up: the rotors, their initial settings, and the plugboard, which is
+ *  shared by every machine set up from the line.  For a Machine, the
+ *  rotors and settings are held packed, as from Machine.rotorOrder and
+ *  snapshot, and a hit restores them directly.  Only lines that were
+ *  set up successfully are cached, so a hit needs no parsing or further
+ *  checking.  A SettingsCache may be shared by several threads.
+ *  @author esun
+ */
+class SettingsCache {
+
+    /** The setup given by a settings line. */
+    static final class Settings {
+
+        /** Setup inserting the rotors named ROTORS, set to SETTING, with
+         *  plugboard PLUGBOARD. */
+        Settings(String[] rotors, String setting, Permutation plugboard) {
+            this(null, rotors, setting, plugboard);
+        }
+
+        /** The setup of M, which has just been set up by inserting the
+         *  rotors named ROTORS, setting them to SETTING, and setting its
+         *  plugboard to PLUGBOARD.  M may be null. */
+        Settings(EnigmaEngine m, String[] rotors, String setting,
+                 Permutation plugboard) {
+            _rotors = rotors.clone();
+            _setting = setting;
+            _plugboard = plugboard;
+            if (m instanceof Machine && ((Machine) m).packsSetup()) {
+                _order = ((Machine) m).rotorOrder();
+                _state = m.snapshot();
+                _packed = true;
+            } else {
+                _order = _state = 0;
+                _packed = false;
+            }
+        }
+
+        /** Set up M as I describe.  If M is a Machine with the rotors of
+         *  the machine I was taken from, its packed setup is restored
+         *  without resolving names or parsing settings. */
+        void applyTo(EnigmaEngine m) {
+            if (_packed && m instanceof Machine) {
+                ((Machine) m).restoreSetup(_order, _state);
+            } else {
+                m.insertRotors(_rotors);
+                m.setRotors(_setting);
+            }
+            m.setPlugboard(_plugboard);
+        }
+
+        /** Names of the rotors, reflector first. */
+        private final String[] _rotors;
+
+        /** Initial settings of the rotors. */
+        private final String _setting;
+
+        /** The plugboard. */
+        private final Permutation _plugboard;
+
+        /** The rotors and their settings, packed, if _packed. */
+        private final long _order, _state;
+
+        /** True iff _order and _state hold the setup. */
+        private final boolean _packed;
+    }
+
+    /** A cache holding at most CAPACITY lines. */
+    SettingsCache(int capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Settings> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return the setup cached for the settings line LINE (as used by
+     *  Main.setUp), or null if there is none. */
+    synchronized Settings get(String line) {
+        Settings result = _entries.get(key(line));
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Cache SETTINGS as the setup for LINE. */
+    synchronized void put(String line, Settings settings) {
+        if (_capacity > 0) {
+            _entries.put(key(line), settings);
+        }
+    }
+
+    /** Return the number of calls to get that found a setup. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of calls to get that found none. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the key for settings line LINE.  Main.setUp ignores
+     *  leading and trailing blanks, but not others. */
+    private static String key(String line) {
+        return line.trim();
+    }
+
+    /** Maximum number of entries. */
+    private final int _capacity;
+
+    /** Cached setups by key, least recently used first. */
+    private final LinkedHashMap<String, Settings> _entries;
+
+    /** Numbers of hits and misses. */
+    private long _hits, _misses;
+
+}
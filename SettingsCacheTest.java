@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.MachineTest.*;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SettingsCache class.
+ *  @author esun
+ */
+public class SettingsCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a setup for the plugboard CYCLES. */
+    private SettingsCache.Settings settings(String cycles) {
+        return new SettingsCache.Settings(new String[] { "B", "I", "II" },
+                                          "AA",
+                                          new Permutation(cycles, UPPER));
+    }
+
+    @Test
+    public void checkLeastRecentlyUsed() {
+        SettingsCache cache = new SettingsCache(2);
+        SettingsCache.Settings a = settings("(AB)"), b = settings("(CD)");
+        cache.put(" B I II AA (AB)", a);
+        cache.put("B I II AA (CD)", b);
+        assertSame(a, cache.get("B I II AA (AB) "));
+        cache.put("B I II AA (EF)", settings("(EF)"));
+        assertNull(cache.get("B I II AA (CD)"));
+        assertSame(a, cache.get("B I II AA (AB)"));
+        assertNull(cache.get("B I II  AA (AB)"));
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void checkRestoresMachine() {
+        Machine blank = new Machine(UPPER, 5, 3, navalRotors());
+        Machine source = blank.copy();
+        String[] rotors = { "B", "Gamma", "V", "II", "VIII" };
+        Permutation plugboard = new Permutation("(AQ) (ZT)", UPPER);
+        source.insertRotors(rotors);
+        source.setRotors("QEVZ");
+        source.setPlugboard(plugboard);
+        SettingsCache.Settings settings =
+            new SettingsCache.Settings(source, rotors, "QEVZ", plugboard);
+
+        Machine fresh = blank.copy();
+        settings.applyTo(fresh);
+        Machine used = blank.copy();
+        used.insertRotors(SPEC_ROTORS);
+        used.setRotors("AXLE");
+        used.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+        used.setCompileThreshold(0);
+        used.convert("FROM HIS SHOULDER HIAWATHA");
+        settings.applyTo(used);
+        ReferenceEngine reference =
+            new ReferenceEngine(UPPER, 5, 3, navalRotors());
+        settings.applyTo(reference);
+
+        String msg = "TOOK THE CAMERA OF ROSEWOOD";
+        String expected = source.convert(msg);
+        assertEquals(expected, fresh.convert(msg));
+        assertEquals(expected, used.convert(msg));
+        assertEquals(expected, reference.convert(msg));
+        fresh.positionAt(0);
+        assertEquals("initial settings", expected, fresh.convert(msg));
+    }
+
+    @Test
+    public void checkDisabled() {
+        SettingsCache cache = new SettingsCache(0);
+        cache.put("B I II AA", settings(""));
+        assertNull(cache.get("B I II AA"));
+    }
+
+}
@@ -10,7 +10,15 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          MachineTest.class, ParallelEnigmaTest.class,
+                          EngineCheckerTest.class, BatchEnigmaTest.class,
+                          SettingsCacheTest.class, ConfigImageTest.class,
+                          RotorLibraryTest.class, BombeTest.class,
+                          CoincidenceSearchTest.class,
+                          EnigmaServerTest.class,
+                          MessagePipelineTest.class,
+                          InputTokenizerTest.class);
     }
 
 }